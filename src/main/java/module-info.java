@@ -13,7 +13,11 @@ module org.wwi21seb.vs.group5.travelbroker {
             requires com.fasterxml.jackson.databind;
     requires SharedUtilities;
     requires java.logging;
+    requires jdk.jfr;
+    requires jdk.management;
 
     opens org.wwi21seb.vs.group5.travelbroker to javafx.fxml;
+    opens org.wwi21seb.vs.group5.travelbroker.Subscription to com.fasterxml.jackson.databind;
+    opens org.wwi21seb.vs.group5.travelbroker.Standby to com.fasterxml.jackson.databind;
     exports org.wwi21seb.vs.group5.travelbroker;
 }
\ No newline at end of file
@@ -0,0 +1,258 @@
+package org.wwi21seb.vs.group5.travelbroker.Client;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.util.Callback;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The ObservableListUpdater applies new result lists to an ObservableList that
+ * backs a TableView. The difference between the current and the new items is
+ * computed off the FX thread, only the resulting changes are applied on the FX
+ * thread and insertions are spread over multiple frames, so large result sets
+ * don't freeze the UI or re-layout the whole table.
+ *
+ * @param <T> the type of the items in the list
+ */
+public class ObservableListUpdater<T> {
+
+    // The maximum number of items that are inserted per frame
+    private static final int DEFAULT_BATCH_SIZE = 250;
+
+    // The list that is updated, this must only be modified by this updater
+    private final ObservableList<T> target;
+
+    // The key identifies an item across result sets (e.g. the room id)
+    private final Function<T, ?> keyExtractor;
+
+    // Decides whether two items with the same key can be displayed the same way
+    private final BiPredicate<T, T> sameContent;
+
+    // The numeric keys that are indexed for sorting, mapped by their table column
+    private final Map<TableColumn<T, ?>, ToDoubleFunction<T>> sortKeys;
+
+    private final int batchSize;
+
+    // The diffs are computed sequentially, so every diff is based on the previous one
+    private final ExecutorService diffExecutor;
+
+    // The changes waiting to be applied, this is only accessed on the FX thread
+    private final ArrayDeque<ListChange<T>> pendingChanges = new ArrayDeque<>();
+
+    // The timer applies the pending changes once per frame
+    private final AnimationTimer applyTimer;
+
+    // The contents of the target list once all computed changes are applied,
+    // this is only accessed by the diff executor
+    private List<T> shadow = List.of();
+
+    // The sort index of the currently displayed items, only accessed on the FX thread
+    private SortIndex<T> sortIndex;
+
+    public ObservableListUpdater(ObservableList<T> target, Function<T, ?> keyExtractor, BiPredicate<T, T> sameContent,
+                                 Map<TableColumn<T, ?>, ToDoubleFunction<T>> sortKeys) {
+        this.target = target;
+        this.keyExtractor = keyExtractor;
+        this.sameContent = sameContent;
+        this.sortKeys = sortKeys;
+        this.batchSize = DEFAULT_BATCH_SIZE;
+        this.diffExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ObservableListUpdater");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.applyTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                applyPendingChanges();
+            }
+        };
+    }
+
+    /**
+     * Replaces the contents of the target list with the given items. The diff
+     * is computed in the background and applied over the following frames.
+     *
+     * @param items the new items
+     * @return a future that completes on the FX thread once all changes are applied
+     */
+    public CompletableFuture<Void> update(List<T> items) {
+        CompletableFuture<Void> applied = new CompletableFuture<>();
+
+        diffExecutor.execute(() -> {
+            ListChange<T> change = diff(items, applied);
+            Platform.runLater(() -> {
+                pendingChanges.add(change);
+                applyTimer.start();
+            });
+        });
+
+        return applied;
+    }
+
+    /**
+     * Returns a sort policy for the table of the target list. Sorting by one of the
+     * indexed columns uses the precomputed order, all other sorts fall back to the
+     * default policy of the TableView. The order is applied as a single permutation,
+     * so the rows and the selection are kept instead of replacing all items.
+     *
+     * @return the sort policy
+     */
+    @SuppressWarnings("unchecked")
+    public Callback<TableView<T>, Boolean> sortPolicy() {
+        return table -> {
+            List<TableColumn<T, ?>> sortOrder = table.getSortOrder();
+
+            if (sortOrder.size() != 1 || sortIndex == null || !sortIndex.hasKey(sortOrder.get(0))
+                    || !pendingChanges.isEmpty() || sortIndex.size() != target.size()) {
+                return TableView.DEFAULT_SORT_POLICY.call(table);
+            }
+
+            TableColumn<T, ?> column = sortOrder.get(0);
+            applyOrder(sortIndex.sorted(column, column.getSortType() == TableColumn.SortType.ASCENDING));
+            return true;
+        };
+    }
+
+    /**
+     * Moves the items of the target list into the given order. The target list
+     * must contain exactly the given items.
+     *
+     * @param order the items in their new order
+     */
+    private void applyOrder(List<T> order) {
+        // The items are compared by identity, since the models don't implement equals
+        Map<T, Integer> ranks = new IdentityHashMap<>(order.size());
+        for (int i = 0; i < order.size(); i++) {
+            ranks.put(order.get(i), i);
+        }
+
+        // Sorting the list in place fires one permutation instead of a removal and an insertion of all items
+        FXCollections.sort(target, Comparator.comparingInt(ranks::get));
+    }
+
+    private ListChange<T> diff(List<T> items, CompletableFuture<Void> applied) {
+        Map<Object, T> previous = new HashMap<>();
+        for (T item : shadow) {
+            previous.put(keyExtractor.apply(item), item);
+        }
+
+        // The items are compared by identity, since the models don't implement equals
+        Map<T, T> replaced = new IdentityHashMap<>();
+        List<T> inserted = new ArrayList<>();
+        List<T> next = new ArrayList<>(items.size());
+
+        for (T item : items) {
+            T old = previous.remove(keyExtractor.apply(item));
+
+            if (old == null) {
+                inserted.add(item);
+                next.add(item);
+            } else if (sameContent.test(old, item)) {
+                // Keep the displayed instance, so the row is not touched at all
+                next.add(old);
+            } else {
+                replaced.put(old, item);
+                next.add(item);
+            }
+        }
+
+        // Everything that is left was not part of the new result
+        Set<T> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        removed.addAll(previous.values());
+
+        shadow = next;
+        SortIndex<T> index = sortKeys.isEmpty() ? null : SortIndex.build(next, sortKeys);
+        return new ListChange<>(removed, replaced, inserted, index, applied);
+    }
+
+    private void applyPendingChanges() {
+        int budget = batchSize;
+
+        while (!pendingChanges.isEmpty() && budget > 0) {
+            ListChange<T> change = pendingChanges.peek();
+            budget -= change.apply(target, budget);
+
+            if (change.isComplete()) {
+                pendingChanges.poll();
+                sortIndex = change.index;
+                change.applied.complete(null);
+            }
+        }
+
+        if (pendingChanges.isEmpty()) {
+            applyTimer.stop();
+        }
+    }
+
+    /**
+     * A ListChange contains the minimal changes between two result lists.
+     */
+    private static class ListChange<T> {
+        private final Set<T> removed;
+        private final Map<T, T> replaced;
+        private final List<T> inserted;
+        private final SortIndex<T> index;
+        private final CompletableFuture<Void> applied;
+        private boolean started = false;
+        private int insertedCount = 0;
+
+        private ListChange(Set<T> removed, Map<T, T> replaced, List<T> inserted, SortIndex<T> index,
+                           CompletableFuture<Void> applied) {
+            this.removed = removed;
+            this.replaced = replaced;
+            this.inserted = inserted;
+            this.index = index;
+            this.applied = applied;
+        }
+
+        /**
+         * Applies the removals and replacements on the first call and inserts up
+         * to the given number of new items.
+         *
+         * @return the number of inserted items
+         */
+        private int apply(ObservableList<T> target, int budget) {
+            if (!started) {
+                started = true;
+
+                // removeAll fires a single change event for all removed rows
+                if (!removed.isEmpty()) {
+                    target.removeAll(removed);
+                }
+
+                if (!replaced.isEmpty()) {
+                    for (int i = 0; i < target.size(); i++) {
+                        T replacement = replaced.get(target.get(i));
+                        if (replacement != null) {
+                            target.set(i, replacement);
+                        }
+                    }
+                }
+            }
+
+            int count = Math.min(budget, inserted.size() - insertedCount);
+            if (count > 0) {
+                target.addAll(inserted.subList(insertedCount, insertedCount + count));
+                insertedCount += count;
+            }
+
+            return count;
+        }
+
+        private boolean isComplete() {
+            return started && insertedCount == inserted.size();
+        }
+    }
+}
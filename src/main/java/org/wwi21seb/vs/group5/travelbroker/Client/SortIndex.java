@@ -0,0 +1,125 @@
+package org.wwi21seb.vs.group5.travelbroker.Client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The SortIndex stores precomputed sort orders of a result list for a set of
+ * numeric keys (e.g. price and capacity). It is built once per result set off
+ * the FX thread, so re-sorting a large table only has to walk the stored order
+ * instead of comparing all items again.
+ *
+ * @param <T> the type of the indexed items
+ */
+public class SortIndex<T> {
+
+    // The items in the order they were indexed
+    private final List<T> items;
+
+    // The ascending order of the item positions for each key
+    private final Map<Object, int[]> ascendingOrders;
+
+    // The descending order of the item positions for each key
+    private final Map<Object, int[]> descendingOrders;
+
+    private SortIndex(List<T> items, Map<Object, int[]> ascendingOrders, Map<Object, int[]> descendingOrders) {
+        this.items = items;
+        this.ascendingOrders = ascendingOrders;
+        this.descendingOrders = descendingOrders;
+    }
+
+    /**
+     * Builds the sort orders for the given items. This should not be called on
+     * the FX thread, since it sorts the whole list twice per key.
+     *
+     * @param items the items to index
+     * @param keys  the numeric keys, mapped by an identifier (e.g. the table column)
+     * @return the index for the given items
+     */
+    public static <T> SortIndex<T> build(List<T> items, Map<?, ToDoubleFunction<T>> keys) {
+        Map<Object, int[]> ascendingOrders = new HashMap<>();
+        Map<Object, int[]> descendingOrders = new HashMap<>();
+
+        keys.forEach((id, key) -> {
+            // Extract the keys once, so the sort only compares primitives
+            double[] values = new double[items.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = key.applyAsDouble(items.get(i));
+            }
+
+            ascendingOrders.put(id, sortPositions(values, false));
+            descendingOrders.put(id, sortPositions(values, true));
+        });
+
+        return new SortIndex<>(items, ascendingOrders, descendingOrders);
+    }
+
+    /**
+     * Sorts the positions of the values by their value. This is a bottom-up
+     * merge sort on int arrays, so no position is boxed, and it is stable in
+     * both directions, so equal values keep the order of their positions.
+     *
+     * @param values     the values of the positions
+     * @param descending whether the positions are sorted descending
+     * @return the positions in the requested order of their values
+     */
+    private static int[] sortPositions(double[] values, boolean descending) {
+        int[] order = new int[values.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        int[] buffer = new int[values.length];
+        for (int width = 1; width < order.length; width *= 2) {
+            for (int start = 0; start < order.length - width; start += 2 * width) {
+                int middle = start + width;
+                int end = Math.min(start + 2 * width, order.length);
+                int left = start;
+                int right = middle;
+                for (int i = start; i < end; i++) {
+                    // Taking the left position on equal values keeps the sort stable
+                    if (right >= end || (left < middle && compare(values[order[left]], values[order[right]], descending) <= 0)) {
+                        buffer[i] = order[left++];
+                    } else {
+                        buffer[i] = order[right++];
+                    }
+                }
+                System.arraycopy(buffer, start, order, start, end - start);
+            }
+        }
+        return order;
+    }
+
+    private static int compare(double left, double right, boolean descending) {
+        return descending ? Double.compare(right, left) : Double.compare(left, right);
+    }
+
+    public boolean hasKey(Object id) {
+        return ascendingOrders.containsKey(id);
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Returns the indexed items sorted by the given key.
+     *
+     * @param id        the identifier of the key
+     * @param ascending whether the items should be sorted ascending or descending
+     * @return the sorted items
+     */
+    public List<T> sorted(Object id, boolean ascending) {
+        int[] order = ascending ? ascendingOrders.get(id) : descendingOrders.get(id);
+        List<T> result = new ArrayList<>(order.length);
+
+        for (int position : order) {
+            result.add(items.get(position));
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,245 @@
+package org.wwi21seb.vs.group5.travelbroker.Logging;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * The AsyncEventLogger moves logging off our hot paths. An event is only
+ * recorded if its level is enabled for the target logger. Recording copies the
+ * level, the time, the message pattern and up to four arguments into a slot of
+ * a preallocated ring buffer. A background thread formats the events and
+ * passes them to the target logger, so the handlers of the LoggerFactory don't
+ * run on the thread that logged the event.
+ * <p>
+ * When the ring buffer is full, the {@link OverflowPolicy} decides whether the
+ * event is dropped or the logging thread waits for a free slot. Message
+ * payloads should only be logged if {@link #samplePayload()} returns true.
+ * <p>
+ * The logger is configured with the system properties
+ * {@code travelbroker.log.capacity} (default 8192 events),
+ * {@code travelbroker.log.overflow} ({@code DROP} or {@code BLOCK}, default
+ * {@code DROP}) and {@code travelbroker.log.payloadSampleRate} (log every nth
+ * payload, default 100).
+ */
+public class AsyncEventLogger {
+
+    private static final int MAX_ARGUMENTS = 4;
+
+    private final Logger target;
+    private final OverflowPolicy overflowPolicy;
+    private final int payloadSampleRate;
+
+    // The ring buffer, its slots are allocated once and reused
+    private final Slot[] ring;
+
+    // The total number of events written to and read from the ring buffer
+    private long head = 0;
+    private long tail = 0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private final AtomicLong payloadCounter = new AtomicLong();
+    private final AtomicLong droppedEvents = new AtomicLong();
+
+    public AsyncEventLogger(Logger target, int capacity, OverflowPolicy overflowPolicy, int payloadSampleRate) {
+        this.target = target;
+        this.overflowPolicy = overflowPolicy;
+        this.payloadSampleRate = Math.max(1, payloadSampleRate);
+        this.ring = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Slot();
+        }
+
+        Thread writer = new Thread(this::writeEvents, "AsyncEventLogger-" + target.getName());
+        writer.setDaemon(true);
+        writer.start();
+
+        // Write the remaining events when the application exits
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain));
+    }
+
+    /**
+     * Creates a logger for the given target with the configuration from the system properties.
+     *
+     * @param target the logger the events are written to
+     * @return the asynchronous logger
+     */
+    public static AsyncEventLogger create(Logger target) {
+        int capacity = Integer.getInteger("travelbroker.log.capacity", 8192);
+        OverflowPolicy overflowPolicy = OverflowPolicy.valueOf(System.getProperty("travelbroker.log.overflow", OverflowPolicy.DROP.name()));
+        int payloadSampleRate = Integer.getInteger("travelbroker.log.payloadSampleRate", 100);
+
+        return new AsyncEventLogger(target, capacity, overflowPolicy, payloadSampleRate);
+    }
+
+    public boolean isLoggable(Level level) {
+        return target.isLoggable(level);
+    }
+
+    /**
+     * Decides whether the payload of the current message should be logged.
+     * Payloads are logged at FINE, and only every nth of them.
+     *
+     * @return true if the payload should be logged
+     */
+    public boolean samplePayload() {
+        return target.isLoggable(Level.FINE) && payloadCounter.getAndIncrement() % payloadSampleRate == 0;
+    }
+
+    public void log(Level level, String pattern) {
+        if (target.isLoggable(level)) {
+            enqueue(level, pattern, 0, null, null, null, null);
+        }
+    }
+
+    public void log(Level level, String pattern, Object arg0) {
+        if (target.isLoggable(level)) {
+            enqueue(level, pattern, 1, arg0, null, null, null);
+        }
+    }
+
+    public void log(Level level, String pattern, Object arg0, Object arg1) {
+        if (target.isLoggable(level)) {
+            enqueue(level, pattern, 2, arg0, arg1, null, null);
+        }
+    }
+
+    public void log(Level level, String pattern, Object arg0, Object arg1, Object arg2) {
+        if (target.isLoggable(level)) {
+            enqueue(level, pattern, 3, arg0, arg1, arg2, null);
+        }
+    }
+
+    public void log(Level level, String pattern, Object arg0, Object arg1, Object arg2, Object arg3) {
+        if (target.isLoggable(level)) {
+            enqueue(level, pattern, 4, arg0, arg1, arg2, arg3);
+        }
+    }
+
+    private void enqueue(Level level, String pattern, int argumentCount, Object arg0, Object arg1, Object arg2, Object arg3) {
+        lock.lock();
+        try {
+            while (head - tail == ring.length) {
+                if (overflowPolicy == OverflowPolicy.DROP) {
+                    droppedEvents.incrementAndGet();
+                    return;
+                }
+                notFull.awaitUninterruptibly();
+            }
+
+            Slot slot = ring[(int) (head % ring.length)];
+            slot.timestamp = System.currentTimeMillis();
+            slot.level = level;
+            slot.pattern = pattern;
+            slot.argumentCount = argumentCount;
+            slot.arguments[0] = arg0;
+            slot.arguments[1] = arg1;
+            slot.arguments[2] = arg2;
+            slot.arguments[3] = arg3;
+            head++;
+
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeEvents() {
+        while (true) {
+            lock.lock();
+            try {
+                while (head == tail) {
+                    notEmpty.awaitUninterruptibly();
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            drain();
+        }
+    }
+
+    /**
+     * Writes all events that are currently in the ring buffer to the target logger.
+     */
+    private synchronized void drain() {
+        while (true) {
+            LogRecord record;
+
+            lock.lock();
+            try {
+                if (head == tail) {
+                    break;
+                }
+
+                Slot slot = ring[(int) (tail % ring.length)];
+                record = slot.toRecord(target.getName());
+                slot.clear();
+                tail++;
+
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+
+            // The handlers are called outside the lock, so logging threads can continue
+            target.log(record);
+        }
+
+        long dropped = droppedEvents.getAndSet(0);
+        if (dropped > 0) {
+            target.log(Level.WARNING, "Dropped {0} log events because the log buffer was full", dropped);
+        }
+    }
+
+    public enum OverflowPolicy {
+        // Events that don't fit into the buffer are counted and discarded
+        DROP,
+        // The logging thread waits until the writer has made room
+        BLOCK
+    }
+
+    /**
+     * A Slot holds a single event in the ring buffer.
+     */
+    private static class Slot {
+        private final Object[] arguments = new Object[MAX_ARGUMENTS];
+        private long timestamp;
+        private Level level;
+        private String pattern;
+        private int argumentCount;
+
+        private LogRecord toRecord(String loggerName) {
+            LogRecord record = new LogRecord(level, pattern);
+            record.setLoggerName(loggerName);
+            // Setting the source prevents the record from inferring it from the writer thread
+            record.setSourceClassName(loggerName);
+            record.setInstant(Instant.ofEpochMilli(timestamp));
+
+            if (argumentCount > 0) {
+                Object[] parameters = new Object[argumentCount];
+                System.arraycopy(arguments, 0, parameters, 0, argumentCount);
+                record.setParameters(parameters);
+            }
+
+            return record;
+        }
+
+        private void clear() {
+            level = null;
+            pattern = null;
+            argumentCount = 0;
+            // Release the references, so the arguments can be collected
+            for (int i = 0; i < MAX_ARGUMENTS; i++) {
+                arguments[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.wwi21seb.vs.group5.travelbroker.Logging;
+
+import jdk.jfr.*;
+
+import java.util.UUID;
+
+/**
+ * The LogWriteEvent records how long a write or delete of the log of a
+ * transaction took. The event is started before the log is touched and
+ * committed with {@link #end}.
+ */
+@Name("org.wwi21seb.travelbroker.LogWrite")
+@Label("Log Write")
+@Category({"TravelBroker", "Durability"})
+@Description("A write or delete of the log of a transaction")
+@Enabled(false)
+@StackTrace(false)
+public class LogWriteEvent extends Event {
+
+    @Label("Transaction Id")
+    private String transactionId;
+
+    @Label("Operation")
+    private String operation;
+
+    public static LogWriteEvent start() {
+        LogWriteEvent event = new LogWriteEvent();
+        event.begin();
+        return event;
+    }
+
+    public void end(UUID transactionId, String operation) {
+        if (shouldCommit()) {
+            this.transactionId = transactionId.toString();
+            this.operation = operation;
+            commit();
+        }
+    }
+}
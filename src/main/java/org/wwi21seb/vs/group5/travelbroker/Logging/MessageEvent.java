@@ -0,0 +1,62 @@
+package org.wwi21seb.vs.group5.travelbroker.Logging;
+
+import jdk.jfr.*;
+import org.wwi21seb.vs.group5.UDP.Operation;
+
+import java.net.InetAddress;
+import java.util.UUID;
+
+/**
+ * The MessageEvent records a message the coordinator sent or received. Like
+ * all of our JFR events, it is disabled unless a recording is started with
+ * the travelbroker.jfc settings, and then costs a single check.
+ */
+@Name("org.wwi21seb.travelbroker.Message")
+@Label("Message")
+@Category({"TravelBroker", "Messages"})
+@Description("A message sent or received by the coordinator")
+@Enabled(false)
+@StackTrace(false)
+public class MessageEvent extends Event {
+
+    @Label("Direction")
+    private String direction;
+
+    @Label("Operation")
+    private String operation;
+
+    @Label("Transaction Id")
+    private String transactionId;
+
+    @Label("Size")
+    @DataAmount
+    private int size;
+
+    @Label("Participant")
+    @Description("The sender of a received message or the address a message was sent to")
+    private String participant;
+
+    public static void sent(Operation operation, UUID transactionId, int size, InetAddress address, int port) {
+        MessageEvent event = new MessageEvent();
+        if (event.shouldCommit()) {
+            event.direction = "send";
+            event.operation = operation.name();
+            event.transactionId = transactionId.toString();
+            event.size = size;
+            event.participant = address.getHostAddress() + ":" + port;
+            event.commit();
+        }
+    }
+
+    public static void received(Operation operation, UUID transactionId, int size, String sender) {
+        MessageEvent event = new MessageEvent();
+        if (event.shouldCommit()) {
+            event.direction = "receive";
+            event.operation = operation.name();
+            event.transactionId = transactionId.toString();
+            event.size = size;
+            event.participant = sender;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.wwi21seb.vs.group5.travelbroker.Logging;
+
+import jdk.jfr.*;
+
+import java.util.UUID;
+
+/**
+ * The PhaseEvent records the transition of a transaction from one phase of
+ * the two-phase commit to the next, from NEW to PREPARE, from PREPARE to
+ * COMMIT or ABORT, and from the decision to DONE once all participants have
+ * acknowledged it.
+ */
+@Name("org.wwi21seb.travelbroker.Phase")
+@Label("Phase Transition")
+@Category({"TravelBroker", "Transactions"})
+@Description("A transaction moved to the next phase of the two-phase commit")
+@Enabled(false)
+@StackTrace(false)
+public class PhaseEvent extends Event {
+
+    @Label("Transaction Id")
+    private String transactionId;
+
+    @Label("From")
+    private String from;
+
+    @Label("To")
+    private String to;
+
+    @Label("Participants")
+    private int participants;
+
+    public static void transition(UUID transactionId, Object from, Object to, int participants) {
+        PhaseEvent event = new PhaseEvent();
+        if (event.shouldCommit()) {
+            event.transactionId = transactionId.toString();
+            event.from = String.valueOf(from);
+            event.to = String.valueOf(to);
+            event.participants = participants;
+            event.commit();
+        }
+    }
+}
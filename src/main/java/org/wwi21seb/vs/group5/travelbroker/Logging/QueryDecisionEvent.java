@@ -0,0 +1,32 @@
+package org.wwi21seb.vs.group5.travelbroker.Logging;
+
+import jdk.jfr.*;
+
+/**
+ * The QueryDecisionEvent records how a query or booking was served, e.g.
+ * from the replica instead of the providers, or rejected by the booked
+ * intervals without a PREPARE.
+ */
+@Name("org.wwi21seb.travelbroker.QueryDecision")
+@Label("Query Decision")
+@Category({"TravelBroker", "Queries"})
+@Description("A query was answered locally or fanned out to the providers")
+@Enabled(false)
+@StackTrace(false)
+public class QueryDecisionEvent extends Event {
+
+    @Label("Query")
+    private String query;
+
+    @Label("Decision")
+    private String decision;
+
+    public static void decided(String query, String decision) {
+        QueryDecisionEvent event = new QueryDecisionEvent();
+        if (event.shouldCommit()) {
+            event.query = query;
+            event.decision = decision;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.wwi21seb.vs.group5.travelbroker.Logging;
+
+import jdk.jfr.*;
+
+import java.util.UUID;
+
+/**
+ * The RetransmissionEvent records a decision that is sent again, because a
+ * participant hasn't acknowledged it or the transaction is parked.
+ */
+@Name("org.wwi21seb.travelbroker.Retransmission")
+@Label("Retransmission")
+@Category({"TravelBroker", "Transactions"})
+@Description("A decision is sent again to the participants that haven't acknowledged it")
+@Enabled(false)
+@StackTrace(false)
+public class RetransmissionEvent extends Event {
+
+    @Label("Transaction Id")
+    private String transactionId;
+
+    @Label("Decision")
+    private String decision;
+
+    @Label("Attempt")
+    private int attempt;
+
+    @Label("Parked")
+    private boolean parked;
+
+    public static void retransmitted(UUID transactionId, Object decision, int attempt, boolean parked) {
+        RetransmissionEvent event = new RetransmissionEvent();
+        if (event.shouldCommit()) {
+            event.transactionId = transactionId.toString();
+            event.decision = String.valueOf(decision);
+            event.attempt = attempt;
+            event.parked = parked;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.wwi21seb.vs.group5.travelbroker.Logging;
+
+import jdk.jfr.*;
+import org.wwi21seb.vs.group5.UDP.Operation;
+
+import java.net.InetAddress;
+import java.util.UUID;
+
+/**
+ * The TimeoutEvent records a request or a decision that wasn't answered in time.
+ */
+@Name("org.wwi21seb.travelbroker.Timeout")
+@Label("Timeout")
+@Category({"TravelBroker", "Transactions"})
+@Description("A participant didn't answer a query, a PREPARE or a decision in time")
+@Enabled(false)
+@StackTrace(false)
+public class TimeoutEvent extends Event {
+
+    @Label("Transaction Id")
+    private String transactionId;
+
+    @Label("Waiting For")
+    @Description("The answer that timed out, e.g. a vote or the ACK of a COMMIT")
+    private String waitingFor;
+
+    @Label("Participant")
+    private String participant;
+
+    public static void timedOut(UUID transactionId, String waitingFor, String participant) {
+        TimeoutEvent event = new TimeoutEvent();
+        if (event.shouldCommit()) {
+            event.transactionId = transactionId.toString();
+            event.waitingFor = waitingFor;
+            event.participant = participant;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records a query that wasn't answered in time. The descriptions are only
+     * built if the event is recorded.
+     */
+    public static void timedOut(UUID transactionId, Operation operation, InetAddress address, int port) {
+        TimeoutEvent event = new TimeoutEvent();
+        if (event.shouldCommit()) {
+            event.transactionId = transactionId.toString();
+            event.waitingFor = "reply to " + operation;
+            event.participant = address.getHostAddress() + ":" + port;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records a query to the multicast group that wasn't answered in time by every participant.
+     */
+    public static void timedOut(UUID transactionId, Operation operation) {
+        TimeoutEvent event = new TimeoutEvent();
+        if (event.shouldCommit()) {
+            event.transactionId = transactionId.toString();
+            event.waitingFor = "reply to " + operation;
+            event.participant = "multicast group";
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package org.wwi21seb.vs.group5.travelbroker.Logging;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * The TransactionTracer records a timeline of the steps of a transaction,
+ * e.g. the PREPAREs, the votes, the log writes and the decision. The events
+ * are kept in a preallocated ring buffer that overwrites the oldest events,
+ * and can be exported in the Chrome trace-event format, which is opened by
+ * chrome://tracing and Perfetto.
+ * <p>
+ * Only every nth transaction is traced, chosen by its id, so all events of a
+ * traced transaction are recorded and the others cost a single check. Every
+ * transaction is shown as its own track: spans are recorded as async begin and
+ * end events with the transaction id, and the viewer pairs them by their name.
+ * <p>
+ * The tracer is configured with the system properties
+ * {@code travelbroker.trace.sampleRate} (trace every nth transaction, 0 to
+ * disable tracing, default 100) and {@code travelbroker.trace.capacity}
+ * (default 65536 events).
+ */
+public class TransactionTracer {
+
+    private final int sampleRate;
+
+    // The events are relative to the creation of the tracer
+    private final long startNanos = System.nanoTime();
+
+    // The ring buffer, its slots are allocated once and reused
+    private final Event[] ring;
+
+    // The total number of events written to the ring buffer
+    private long head = 0;
+
+    public TransactionTracer(int sampleRate, int capacity) {
+        this.sampleRate = sampleRate;
+        this.ring = new Event[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Event();
+        }
+    }
+
+    /**
+     * Creates a tracer with the configuration from the system properties.
+     *
+     * @return the tracer
+     */
+    public static TransactionTracer create() {
+        return new TransactionTracer(Integer.getInteger("travelbroker.trace.sampleRate", 100), Integer.getInteger("travelbroker.trace.capacity", 65536));
+    }
+
+    /**
+     * Decides whether a transaction is traced. The decision only depends on the
+     * random part of the id, so it is the same for every step of the transaction.
+     *
+     * @param transactionId the id of the transaction
+     * @return true if the events of the transaction are recorded
+     */
+    public boolean isSampled(UUID transactionId) {
+        return sampleRate > 0 && Math.floorMod(transactionId.getLeastSignificantBits(), sampleRate) == 0;
+    }
+
+    /**
+     * Records the start of a span, it ends with the next {@link #end} of the same name.
+     */
+    public void begin(UUID transactionId, String name) {
+        begin(transactionId, name, null);
+    }
+
+    /**
+     * Records the start of a span whose name ends with the detail, e.g. the name of a
+     * participant. The name is only put together for the transactions that are traced.
+     */
+    public void begin(UUID transactionId, String name, String detail) {
+        if (isSampled(transactionId)) {
+            record(transactionId, 'b', name, detail);
+        }
+    }
+
+    public void end(UUID transactionId, String name) {
+        end(transactionId, name, null);
+    }
+
+    public void end(UUID transactionId, String name, String detail) {
+        if (isSampled(transactionId)) {
+            record(transactionId, 'e', name, detail);
+        }
+    }
+
+    /**
+     * Records a single point in time, e.g. a message that was sent.
+     */
+    public void instant(UUID transactionId, String name) {
+        instant(transactionId, name, null);
+    }
+
+    public void instant(UUID transactionId, String name, String detail) {
+        if (isSampled(transactionId)) {
+            record(transactionId, 'n', name, detail);
+        }
+    }
+
+    private synchronized void record(UUID transactionId, char phase, String name, String detail) {
+        Event event = ring[(int) (head % ring.length)];
+        event.nanos = System.nanoTime() - startNanos;
+        event.phase = phase;
+        event.name = name;
+        event.detail = detail;
+        event.transactionId = transactionId;
+        event.thread = Thread.currentThread().getName();
+        head++;
+    }
+
+    /**
+     * Writes the events in the ring buffer to a file in the Chrome trace-event format.
+     *
+     * @param file the file to write to
+     * @return the number of events written
+     */
+    public int export(Path file) throws IOException {
+        Event[] events;
+        synchronized (this) {
+            // Copy the events, so recording can continue while we write the file
+            int count = (int) Math.min(head, ring.length);
+            events = new Event[count];
+            for (int i = 0; i < count; i++) {
+                Event event = ring[(int) ((head - count + i) % ring.length)];
+                events[i] = event.copy();
+            }
+        }
+
+        try (JsonGenerator generator = new JsonFactory().createGenerator(file.toFile(), JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("traceEvents");
+
+            for (Event event : events) {
+                generator.writeStartObject();
+                generator.writeStringField("name", event.detail == null ? event.name : event.name + " " + event.detail);
+                generator.writeStringField("cat", "transaction");
+                generator.writeStringField("ph", String.valueOf(event.phase));
+                generator.writeStringField("id", event.transactionId.toString());
+                // The trace format expects microseconds
+                generator.writeNumberField("ts", event.nanos / 1000.0);
+                generator.writeNumberField("pid", 1);
+                generator.writeNumberField("tid", 1);
+                generator.writeObjectFieldStart("args");
+                generator.writeStringField("thread", event.thread);
+                generator.writeEndObject();
+                generator.writeEndObject();
+            }
+
+            generator.writeEndArray();
+            generator.writeStringField("displayTimeUnit", "ms");
+            generator.writeEndObject();
+        }
+
+        return events.length;
+    }
+
+    /**
+     * An Event is a single entry in the ring buffer.
+     */
+    private static class Event {
+        private long nanos;
+        private char phase;
+        private String name;
+        private String detail;
+        private UUID transactionId;
+        private String thread;
+
+        private Event copy() {
+            Event copy = new Event();
+            copy.nanos = nanos;
+            copy.phase = phase;
+            copy.name = name;
+            copy.detail = detail;
+            copy.transactionId = transactionId;
+            copy.thread = thread;
+            return copy;
+        }
+    }
+}
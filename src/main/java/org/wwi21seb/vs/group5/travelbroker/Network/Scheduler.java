@@ -0,0 +1,43 @@
+package org.wwi21seb.vs.group5.travelbroker.Network;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The Scheduler is the clock of the broker. All timeouts of the protocol are
+ * scheduled with it, so they can run on a virtual clock in our simulations
+ * instead of the wall clock.
+ */
+public interface Scheduler {
+
+    long nanoTime();
+
+    /**
+     * Runs the task once after the delay.
+     *
+     * @return the task, which can be cancelled until it has run
+     */
+    Task schedule(Runnable task, long delay, TimeUnit unit);
+
+    /**
+     * Completes the future with a TimeoutException if it isn't completed within
+     * the timeout, like {@link CompletableFuture#orTimeout}.
+     *
+     * @return the given future
+     */
+    default <T> CompletableFuture<T> orTimeout(CompletableFuture<T> future, long timeout, TimeUnit unit) {
+        if (!future.isDone()) {
+            Task task = schedule(() -> future.completeExceptionally(new TimeoutException()), timeout, unit);
+            future.whenComplete((result, e) -> task.cancel());
+        }
+        return future;
+    }
+
+    /**
+     * A Task is a scheduled task.
+     */
+    interface Task {
+        void cancel();
+    }
+}
@@ -0,0 +1,34 @@
+package org.wwi21seb.vs.group5.travelbroker.Network;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The SystemScheduler runs the tasks on the wall clock, on a single daemon
+ * thread like the timeouts of {@link java.util.concurrent.CompletableFuture}.
+ */
+public class SystemScheduler implements Scheduler {
+
+    private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "TravelBroker-Timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SystemScheduler() {
+        // Most of our timeouts are cancelled, they shouldn't stay in the queue until they expire
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public Task schedule(Runnable task, long delay, TimeUnit unit) {
+        ScheduledFuture<?> future = executor.schedule(task, delay, unit);
+        return () -> future.cancel(false);
+    }
+}
@@ -0,0 +1,251 @@
+package org.wwi21seb.vs.group5.travelbroker.Network;
+
+import org.wwi21seb.vs.group5.Logger.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The TcpTransport sends our messages over persistent TCP connections, one per
+ * participant, which suits the large replies of our queries better than UDP.
+ * Every message is framed with its length as a 4-byte big-endian prefix. The
+ * messages are written as soon as they are sent, without waiting for the
+ * replies to the previous ones, so many requests are in flight on a single
+ * connection. The replies are matched to their requests by the transaction
+ * id, just like with UDP.
+ * <p>
+ * All connections are served by a single selector thread, which also hands
+ * the received messages to the receiver. A connection is opened on the first
+ * message to a participant and opened again on the next message after it
+ * failed. The messages queued on a failed connection are dropped, like lost
+ * datagrams, and run into the timeout of their request.
+ */
+public class TcpTransport implements Transport {
+    // The logger is used to log messages to the console.
+    private static final Logger LOGGER = LoggerFactory.setupLogger(TcpTransport.class.getName());
+
+    private static final int HEADER_BYTES = 4;
+    private static final int INITIAL_READ_BUFFER_BYTES = 64 * 1024;
+
+    private final int portOffset;
+    private final int maxFrameBytes;
+    private final Selector selector;
+
+    private final ConcurrentHashMap<InetSocketAddress, Connection> connections = new ConcurrentHashMap<>();
+
+    // The connections whose interest has to be updated by the selector thread, since
+    // a channel can't be registered while another thread is blocked in select
+    private final ConcurrentLinkedQueue<Connection> changes = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param portOffset    the offset of the TCP port of a participant to its UDP port
+     * @param maxFrameBytes the maximum size of a received message
+     */
+    public TcpTransport(int portOffset, int maxFrameBytes) throws IOException {
+        this.portOffset = portOffset;
+        this.maxFrameBytes = maxFrameBytes;
+        this.selector = Selector.open();
+    }
+
+    @Override
+    public void send(byte[] data, int length, InetAddress address, int port) throws IOException {
+        // The data may be reused by the caller, so it is copied into the frame
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + length);
+        frame.putInt(length).put(data, 0, length).flip();
+
+        InetSocketAddress remote = new InetSocketAddress(address, port + portOffset);
+        Connection connection = connections.get(remote);
+        if (connection == null) {
+            connection = open(remote, port);
+        }
+
+        connection.writes.add(frame);
+        changes.add(connection);
+        selector.wakeup();
+    }
+
+    private Connection open(InetSocketAddress remote, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        Connection connection = new Connection(channel, remote, port);
+        Connection existing = connections.putIfAbsent(remote, connection);
+        if (existing != null) {
+            // Another thread opened the connection in the meantime
+            channel.close();
+            return existing;
+        }
+
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            channel.connect(remote);
+        } catch (IOException e) {
+            connection.close(e);
+            throw e;
+        }
+
+        LOGGER.log(Level.INFO, "Opening TCP connection to {0}", remote);
+        return connection;
+    }
+
+    @Override
+    public void start(String name, Receiver receiver) {
+        Thread thread = new Thread(() -> {
+            while (true) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+
+                for (Connection connection = changes.poll(); connection != null; connection = changes.poll()) {
+                    connection.updateInterest();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isConnectable()) {
+                            connection.channel.finishConnect();
+                            connection.updateInterest();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read(receiver);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        connection.close(e);
+                    }
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * The TcpTransport doesn't accept connections, it only connects to the participants.
+     *
+     * @return 0
+     */
+    @Override
+    public int getLocalPort() {
+        return 0;
+    }
+
+    /**
+     * A Connection is the persistent connection to a single participant.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final InetSocketAddress remote;
+        // The UDP port of the participant, which is reported as the sender of its messages
+        private final int port;
+
+        private final ConcurrentLinkedQueue<ByteBuffer> writes = new ConcurrentLinkedQueue<>();
+        private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_BYTES);
+        private SelectionKey key;
+
+        private Connection(SocketChannel channel, InetSocketAddress remote, int port) {
+            this.channel = channel;
+            this.remote = remote;
+            this.port = port;
+        }
+
+        private void updateInterest() {
+            if (!channel.isOpen()) {
+                return;
+            }
+
+            try {
+                if (key == null) {
+                    key = channel.register(selector, 0, this);
+                }
+
+                if (!channel.isConnected()) {
+                    key.interestOps(SelectionKey.OP_CONNECT);
+                } else {
+                    key.interestOps(SelectionKey.OP_READ | (writes.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+                }
+            } catch (IOException | RuntimeException e) {
+                close(e);
+            }
+        }
+
+        private void write() throws IOException {
+            for (ByteBuffer frame = writes.peek(); frame != null; frame = writes.peek()) {
+                channel.write(frame);
+                if (frame.hasRemaining()) {
+                    // The socket buffer is full, we continue once it is writable again
+                    return;
+                }
+                writes.poll();
+            }
+
+            updateInterest();
+        }
+
+        private void read(Receiver receiver) throws IOException {
+            if (channel.read(readBuffer) == -1) {
+                throw new IOException("Connection closed by " + remote);
+            }
+
+            readBuffer.flip();
+            while (readBuffer.remaining() >= HEADER_BYTES) {
+                int length = readBuffer.getInt(readBuffer.position());
+                if (length < 0 || length > maxFrameBytes) {
+                    throw new IOException(String.format("Invalid frame of %d bytes from %s", length, remote));
+                }
+
+                if (readBuffer.remaining() < HEADER_BYTES + length) {
+                    if (readBuffer.capacity() < HEADER_BYTES + length) {
+                        // The frame doesn't fit into the buffer, so it is grown to the size of the frame
+                        ByteBuffer larger = ByteBuffer.allocate(HEADER_BYTES + length);
+                        larger.put(readBuffer).flip();
+                        readBuffer = larger;
+                    }
+                    break;
+                }
+
+                int offset = readBuffer.position() + HEADER_BYTES;
+                receiver.receive(readBuffer.array(), readBuffer.arrayOffset() + offset, length, remote.getAddress(), port);
+                readBuffer.position(offset + length);
+            }
+            readBuffer.compact();
+        }
+
+        private void close(Exception cause) {
+            connections.remove(remote, this);
+            if (key != null) {
+                key.cancel();
+            }
+
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error closing TCP connection to {0}: {1}", new Object[]{remote, e.getMessage()});
+            }
+
+            LOGGER.log(Level.WARNING, "Closed TCP connection to {0}, dropping {1} messages: {2}",
+                    new Object[]{remote, writes.size(), cause.getMessage()});
+            writes.clear();
+        }
+    }
+}
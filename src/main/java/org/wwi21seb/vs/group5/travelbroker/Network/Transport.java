@@ -0,0 +1,36 @@
+package org.wwi21seb.vs.group5.travelbroker.Network;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * A Transport sends and receives the datagrams of the broker. The server only
+ * talks to its participants through this interface, so the UDP sockets can be
+ * replaced, e.g. by the simulated network of our protocol tests.
+ */
+public interface Transport {
+
+    /**
+     * Sends the first length bytes of the data. The data may be reused by the
+     * caller as soon as this method returns.
+     */
+    void send(byte[] data, int length, InetAddress address, int port) throws IOException;
+
+    /**
+     * Starts delivering the received datagrams to the receiver. The data passed
+     * to the receiver is only valid until it returns.
+     *
+     * @param name     the name of the receiving thread, if the transport uses one
+     * @param receiver the receiver of all datagrams
+     */
+    void start(String name, Receiver receiver);
+
+    int getLocalPort();
+
+    /**
+     * A Receiver handles the datagrams of a transport.
+     */
+    interface Receiver {
+        void receive(byte[] data, int offset, int length, InetAddress address, int port);
+    }
+}
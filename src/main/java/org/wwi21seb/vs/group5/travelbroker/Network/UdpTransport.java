@@ -0,0 +1,73 @@
+package org.wwi21seb.vs.group5.travelbroker.Network;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+
+/**
+ * The UdpTransport sends and receives datagrams with a DatagramSocket. The
+ * datagrams are received on a thread of their own, and every sending thread
+ * reuses its own packet.
+ */
+public class UdpTransport implements Transport {
+
+    private final DatagramSocket socket;
+    private final byte[] receiveBuffer;
+    private final boolean daemon;
+    private final int priority;
+
+    // Every sending thread reuses its own packet, only the data and target are replaced.
+    private final ThreadLocal<DatagramPacket> sendPackets = ThreadLocal.withInitial(() -> new DatagramPacket(new byte[0], 0));
+
+    /**
+     * @param port       the port to bind, 0 for any free port
+     * @param bufferSize the maximum size of a received datagram
+     * @param daemon     whether the receiving thread is a daemon thread
+     * @param priority   the priority of the receiving thread
+     */
+    public UdpTransport(int port, int bufferSize, boolean daemon, int priority) throws SocketException {
+        this.socket = new DatagramSocket(port);
+        this.receiveBuffer = new byte[bufferSize];
+        this.daemon = daemon;
+        this.priority = priority;
+    }
+
+    @Override
+    public void send(byte[] data, int length, InetAddress address, int port) throws IOException {
+        DatagramPacket packet = sendPackets.get();
+        packet.setData(data, 0, length);
+        packet.setAddress(address);
+        packet.setPort(port);
+        socket.send(packet);
+    }
+
+    @Override
+    public void start(String name, Receiver receiver) {
+        Thread thread = new Thread(() -> {
+            // The packet and its buffer are reused for every message, since the
+            // message is completely parsed before the next one is received
+            DatagramPacket packet = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+
+            while (true) {
+                packet.setLength(receiveBuffer.length);
+                try {
+                    socket.receive(packet);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+
+                receiver.receive(packet.getData(), packet.getOffset(), packet.getLength(), packet.getAddress(), packet.getPort());
+            }
+        }, name);
+        thread.setDaemon(daemon);
+        thread.setPriority(priority);
+        thread.start();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return socket.getLocalPort();
+    }
+}
@@ -0,0 +1,56 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A BookingGroup contains the transactions of an all-or-nothing batch booking.
+ * The group is committed once every transaction has been voted YES by all
+ * participants and aborted as soon as a single transaction can't be committed.
+ */
+class BookingGroup {
+
+    private final UUID groupId;
+    private final List<UUID> transactionIds;
+    private final Set<UUID> committable = new HashSet<>();
+
+    // The decision of the group, this is null while the group is undecided
+    private Boolean decision = null;
+
+    BookingGroup(UUID groupId, List<UUID> transactionIds) {
+        this.groupId = groupId;
+        this.transactionIds = transactionIds;
+    }
+
+    UUID getGroupId() {
+        return groupId;
+    }
+
+    List<UUID> getTransactionIds() {
+        return transactionIds;
+    }
+
+    /**
+     * Records the outcome of the votes for a transaction of the group.
+     *
+     * @param transactionId the id of the transaction
+     * @param commit        true if the transaction could be committed
+     * @return the decision for the whole group, or null if the group is not decided yet
+     * or was already decided before
+     */
+    synchronized Boolean vote(UUID transactionId, boolean commit) {
+        if (decision != null) {
+            return null;
+        }
+
+        if (!commit) {
+            decision = false;
+        } else if (committable.add(transactionId) && committable.size() == transactionIds.size()) {
+            decision = true;
+        }
+
+        return decision;
+    }
+}
@@ -0,0 +1,68 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A BookingGroupRecord is the logged form of an all-or-nothing group: the ids
+ * of its transactions and, once the group is decided, its decision. The
+ * contexts of the transactions don't know about their group, so without this
+ * record a recovered transaction would be decided on its own.
+ */
+public class BookingGroupRecord {
+
+    private final UUID groupId;
+    private final List<UUID> transactionIds;
+    // The decision of the group, null while the group is undecided
+    private final Boolean decision;
+
+    public BookingGroupRecord(UUID groupId, List<UUID> transactionIds, Boolean decision) {
+        this.groupId = groupId;
+        this.transactionIds = transactionIds;
+        this.decision = decision;
+    }
+
+    public UUID getGroupId() {
+        return groupId;
+    }
+
+    public List<UUID> getTransactionIds() {
+        return transactionIds;
+    }
+
+    public Boolean getDecision() {
+        return decision;
+    }
+
+    /**
+     * Writes the record as JSON. Our package is not opened to Jackson, so the
+     * record is written field by field.
+     *
+     * @param mapper the mapper that creates the node
+     * @return the JSON object of the record
+     */
+    public ObjectNode toJson(ObjectMapper mapper) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("groupId", groupId.toString());
+        ArrayNode ids = node.putArray("transactionIds");
+        transactionIds.forEach(id -> ids.add(id.toString()));
+        if (decision != null) {
+            node.put("decision", decision);
+        }
+        return node;
+    }
+
+    public static BookingGroupRecord fromJson(JsonNode node) {
+        List<UUID> transactionIds = new ArrayList<>();
+        node.get("transactionIds").forEach(id -> transactionIds.add(UUID.fromString(id.asText())));
+        JsonNode decision = node.get("decision");
+        return new BookingGroupRecord(UUID.fromString(node.get("groupId").asText()), transactionIds,
+                decision == null ? null : decision.asBoolean());
+    }
+}
@@ -0,0 +1,210 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * The BookingHistoryIndex keeps the bookings and rentals of both providers in
+ * memory, so the "Get Bookings" searches are answered without asking the
+ * providers. The records are indexed by their room or car, by every night
+ * they include and by their total price, and a query is narrowed down by the
+ * most selective of these before its remaining conditions are checked.
+ * <p>
+ * The index is fed by our own commits and replaced by the bookings of a
+ * provider whenever they are requested. A refresh keeps the records we
+ * committed after the bookings were requested, since the provider couldn't
+ * report them yet. Most records are reported unchanged on every refresh, so
+ * only the records that were added, changed or dropped are indexed again.
+ */
+public class BookingHistoryIndex {
+
+    // The records of each type by their id, every other index is derived from these
+    private final Map<BookingRecord.Type, Map<UUID, BookingRecord>> records = new EnumMap<>(BookingRecord.Type.class);
+
+    private final Map<UUID, List<BookingRecord>> byResource = new HashMap<>();
+    private final TreeMap<LocalDate, List<BookingRecord>> byNight = new TreeMap<>();
+    private final TreeMap<Double, List<BookingRecord>> byPrice = new TreeMap<>();
+
+    public BookingHistoryIndex() {
+        for (BookingRecord.Type type : BookingRecord.Type.values()) {
+            records.put(type, new HashMap<>());
+        }
+    }
+
+    /**
+     * Adds a booking or rental we have committed.
+     *
+     * @param transactionId the transaction that committed it
+     * @param committedAt   the time of the commit, on the clock of the refreshes
+     */
+    public synchronized void addCommitted(BookingRecord.Type type, UUID transactionId, UUID resourceId, LocalDate startDate, LocalDate endDate, long committedAt) {
+        if (resourceId == null || !startDate.isBefore(endDate)) {
+            return;
+        }
+
+        BookingRecord record = new BookingRecord(type, transactionId, resourceId, startDate, endDate, Double.NaN, committedAt);
+        BookingRecord previous = records.get(type).put(transactionId, record);
+        if (previous != null) {
+            // The indexes list the records themselves, so the replaced one has to go
+            unindex(previous);
+        }
+        index(record);
+    }
+
+    /**
+     * Replaces the records of a type with the ones reported by its provider.
+     *
+     * @param type        the type of the records
+     * @param reported    the bookings or rentals of the provider
+     * @param requestedAt the time the bookings were requested, on the clock of the commits
+     */
+    public synchronized void refresh(BookingRecord.Type type, List<BookingRecord> reported, long requestedAt) {
+        Map<UUID, BookingRecord> typeRecords = records.get(type);
+
+        // The records we committed after the request, unless the provider already reported them
+        Set<String> reportedRanges = new HashSet<>();
+        reported.forEach(record -> reportedRanges.add(rangeKey(record)));
+        List<BookingRecord> pending = typeRecords.values().stream()
+                .filter(record -> record.getCommittedAt() > requestedAt && !reportedRanges.contains(rangeKey(record)))
+                .toList();
+
+        Map<UUID, BookingRecord> next = new HashMap<>();
+        reported.forEach(record -> next.put(record.getId(), record));
+        pending.forEach(record -> next.put(record.getId(), record));
+
+        // Only the differences to the stored records are applied to the derived indexes
+        Iterator<BookingRecord> stored = typeRecords.values().iterator();
+        while (stored.hasNext()) {
+            BookingRecord record = stored.next();
+            BookingRecord replacement = next.get(record.getId());
+            if (replacement == null || !replacement.sameAs(record)) {
+                unindex(record);
+                stored.remove();
+            }
+        }
+        next.forEach((id, record) -> {
+            if (!typeRecords.containsKey(id)) {
+                typeRecords.put(id, record);
+                index(record);
+            }
+        });
+    }
+
+    /**
+     * Returns the records that match the query, ordered by their start date.
+     *
+     * @param query the conditions of the records
+     * @return the matching records
+     */
+    public synchronized List<BookingRecord> find(BookingQuery query) {
+        Collection<BookingRecord> candidates;
+        if (query.getResourceId() != null) {
+            candidates = byResource.getOrDefault(query.getResourceId(), List.of());
+        } else if (query.getFrom() != null) {
+            // A record is listed for every night, so it may be found more than once
+            candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (List<BookingRecord> night : byNight.subMap(query.getFrom(), query.getTo()).values()) {
+                candidates.addAll(night);
+            }
+        } else if (query.hasPriceRange()) {
+            candidates = new ArrayList<>();
+            for (List<BookingRecord> price : byPrice.subMap(query.getMinPrice(), true, query.getMaxPrice(), true).values()) {
+                candidates.addAll(price);
+            }
+        } else {
+            candidates = new ArrayList<>();
+            records.values().forEach(recordsOfType -> candidates.addAll(recordsOfType.values()));
+        }
+
+        List<BookingRecord> result = new ArrayList<>();
+        for (BookingRecord record : candidates) {
+            if (query.matches(record)) {
+                result.add(record);
+            }
+        }
+        result.sort(Comparator.comparing(BookingRecord::getStartDate).thenComparing(BookingRecord::getType));
+        return result;
+    }
+
+    /**
+     * Sums up the revenue of the matching records per night. The price of a
+     * record is spread evenly over its nights, only the nights within the
+     * date range of the query are counted. Records without a price are skipped.
+     *
+     * @param query the conditions of the records
+     * @return the revenue by night
+     */
+    public synchronized SortedMap<LocalDate, Double> revenuePerDay(BookingQuery query) {
+        SortedMap<LocalDate, Double> revenue = new TreeMap<>();
+
+        for (BookingRecord record : find(query)) {
+            if (!record.hasPrice()) {
+                continue;
+            }
+
+            double perNight = record.getTotalPrice() / record.getNights();
+            LocalDate first = query.getFrom() != null && query.getFrom().isAfter(record.getStartDate()) ? query.getFrom() : record.getStartDate();
+            LocalDate end = query.getTo() != null && query.getTo().isBefore(record.getEndDate()) ? query.getTo() : record.getEndDate();
+            for (LocalDate night = first; night.isBefore(end); night = night.plusDays(1)) {
+                revenue.merge(night, perNight, Double::sum);
+            }
+        }
+
+        return revenue;
+    }
+
+    /**
+     * @return all records, of both types
+     */
+    public synchronized List<BookingRecord> all() {
+        List<BookingRecord> all = new ArrayList<>();
+        records.values().forEach(recordsOfType -> all.addAll(recordsOfType.values()));
+        return all;
+    }
+
+    public synchronized int size() {
+        return records.values().stream().mapToInt(Map::size).sum();
+    }
+
+    private void index(BookingRecord record) {
+        byResource.computeIfAbsent(record.getResourceId(), id -> new ArrayList<>()).add(record);
+        for (LocalDate night = record.getStartDate(); night.isBefore(record.getEndDate()); night = night.plusDays(1)) {
+            byNight.computeIfAbsent(night, day -> new ArrayList<>()).add(record);
+        }
+        if (record.hasPrice()) {
+            byPrice.computeIfAbsent(record.getTotalPrice(), price -> new ArrayList<>()).add(record);
+        }
+    }
+
+    private void unindex(BookingRecord record) {
+        removeFrom(byResource, record.getResourceId(), record);
+        for (LocalDate night = record.getStartDate(); night.isBefore(record.getEndDate()); night = night.plusDays(1)) {
+            removeFrom(byNight, night, record);
+        }
+        if (record.hasPrice()) {
+            removeFrom(byPrice, record.getTotalPrice(), record);
+        }
+    }
+
+    private static <K> void removeFrom(Map<K, List<BookingRecord>> index, K key, BookingRecord record) {
+        List<BookingRecord> indexed = index.get(key);
+        if (indexed == null) {
+            return;
+        }
+
+        // The records are compared by identity, a record is listed only once per key
+        for (int i = 0; i < indexed.size(); i++) {
+            if (indexed.get(i) == record) {
+                indexed.remove(i);
+                break;
+            }
+        }
+        if (indexed.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private static String rangeKey(BookingRecord record) {
+        return record.getResourceId() + "/" + record.getStartDate() + "/" + record.getEndDate();
+    }
+}
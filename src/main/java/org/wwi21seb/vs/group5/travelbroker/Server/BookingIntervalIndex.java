@@ -0,0 +1,145 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * The BookingIntervalIndex stores the date ranges for which a room or car is
+ * known to be booked. The broker uses it to reject requests that would
+ * conflict with a committed booking before sending a PREPARE.
+ * <p>
+ * The index only has to answer whether a resource is taken for some night, so
+ * overlapping and adjacent ranges of a resource are merged. Per resource the
+ * ranges are stored in a TreeMap by their start date, and since they don't
+ * overlap, their end dates are sorted as well. A conflict check is therefore a
+ * single lookup. Ranges that lie in the past are removed once a day.
+ * <p>
+ * Our commits add their ranges right away. Whenever the bookings of the
+ * providers are refreshed, all ranges are replaced by them, so bookings that
+ * were cancelled or released at a provider stop causing conflicts.
+ * <p>
+ * The index is only a shortcut, the providers still decide about every
+ * booking. When the index is full, new ranges are dropped instead of growing
+ * the memory further.
+ */
+public class BookingIntervalIndex {
+
+    // The maximum number of resources with known bookings
+    private static final int MAX_RESOURCES = 10_000;
+
+    // The maximum number of ranges per resource, the ones furthest in the future are dropped first
+    private static final int MAX_RANGES_PER_RESOURCE = 256;
+
+    // The booked ranges per resource, mapped from start date to end date (exclusive)
+    private final Map<UUID, TreeMap<LocalDate, LocalDate>> ranges = new HashMap<>();
+
+    // The day the past ranges were last removed
+    private LocalDate lastExpiry = LocalDate.MIN;
+
+    /**
+     * Adds a booked range for the given resource.
+     *
+     * @param resourceId the room or car id
+     * @param startDate  the first night of the booking
+     * @param endDate    the day the booking ends, this night is not booked
+     */
+    public synchronized void add(UUID resourceId, LocalDate startDate, LocalDate endDate) {
+        expirePastRanges();
+
+        if (resourceId == null || !startDate.isBefore(endDate) || !endDate.isAfter(lastExpiry)) {
+            return;
+        }
+
+        TreeMap<LocalDate, LocalDate> resourceRanges = ranges.get(resourceId);
+        if (resourceRanges == null) {
+            if (ranges.size() >= MAX_RESOURCES) {
+                return;
+            }
+            resourceRanges = new TreeMap<>();
+            ranges.put(resourceId, resourceRanges);
+        }
+
+        LocalDate mergedStart = startDate;
+        LocalDate mergedEnd = endDate;
+
+        // Merge with the range that starts before and reaches into the new one
+        Map.Entry<LocalDate, LocalDate> lower = resourceRanges.floorEntry(startDate);
+        if (lower != null && !lower.getValue().isBefore(startDate)) {
+            mergedStart = lower.getKey();
+            mergedEnd = max(mergedEnd, lower.getValue());
+        }
+
+        // Merge with all ranges that start within the new one
+        Iterator<Map.Entry<LocalDate, LocalDate>> iterator = resourceRanges.subMap(mergedStart, true, mergedEnd, true).entrySet().iterator();
+        while (iterator.hasNext()) {
+            mergedEnd = max(mergedEnd, iterator.next().getValue());
+            iterator.remove();
+        }
+
+        resourceRanges.put(mergedStart, mergedEnd);
+
+        if (resourceRanges.size() > MAX_RANGES_PER_RESOURCE) {
+            resourceRanges.pollLastEntry();
+        }
+    }
+
+    /**
+     * Replaces all ranges with the ones of the given bookings. A commit that
+     * lands between reading the bookings and replacing the ranges may lose its
+     * range until the next refresh, which only means its conflicts are left to
+     * the providers again.
+     *
+     * @param bookings the bookings the ranges are taken from
+     */
+    public synchronized void replaceAll(Collection<BookingRecord> bookings) {
+        ranges.clear();
+        bookings.forEach(booking -> add(booking.getResourceId(), booking.getStartDate(), booking.getEndDate()));
+    }
+
+    /**
+     * Checks whether the given range overlaps a known booking of the resource.
+     *
+     * @param resourceId the room or car id
+     * @param startDate  the first night of the requested range
+     * @param endDate    the day the requested range ends
+     * @return true if the resource is already booked for at least one night
+     */
+    public synchronized boolean conflicts(UUID resourceId, LocalDate startDate, LocalDate endDate) {
+        expirePastRanges();
+
+        TreeMap<LocalDate, LocalDate> resourceRanges = ranges.get(resourceId);
+        if (resourceRanges == null) {
+            return false;
+        }
+
+        // The last range that starts before the requested end is the only
+        // one that can overlap, since the end dates are sorted as well
+        Map.Entry<LocalDate, LocalDate> candidate = resourceRanges.lowerEntry(endDate);
+        return candidate != null && candidate.getValue().isAfter(startDate);
+    }
+
+    private void expirePastRanges() {
+        LocalDate today = LocalDate.now();
+        if (!today.isAfter(lastExpiry)) {
+            return;
+        }
+        lastExpiry = today;
+
+        ranges.values().removeIf(resourceRanges -> {
+            // Ranges are sorted by start and end date, so the expired ones are at the front
+            while (!resourceRanges.isEmpty() && !resourceRanges.firstEntry().getValue().isAfter(today)) {
+                resourceRanges.pollFirstEntry();
+            }
+            return resourceRanges.isEmpty();
+        });
+    }
+
+    private static LocalDate max(LocalDate a, LocalDate b) {
+        return a.isAfter(b) ? a : b;
+    }
+}
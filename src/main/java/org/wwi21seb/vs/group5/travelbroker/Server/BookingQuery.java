@@ -0,0 +1,137 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.UUID;
+
+/**
+ * A BookingQuery filters the records of the {@link BookingHistoryIndex}. All
+ * conditions that are set have to match. A query is usually parsed from the
+ * search box of the UI, which accepts the following terms separated by spaces:
+ * <pre>
+ * room:&lt;id&gt;             the bookings of a room
+ * car:&lt;id&gt;              the rentals of a car
+ * &lt;id&gt;                  the bookings or rentals of a room or car
+ * rooms, cars           only bookings or only rentals
+ * date:&lt;day&gt;            the records that include the night of the day
+ * date:&lt;from&gt;..&lt;to&gt;     the records that overlap the nights from the first to the last day
+ * minPrice:&lt;price&gt;      the records with a total price of at least the price
+ * maxPrice:&lt;price&gt;      the records with a total price of at most the price
+ * revenue               the revenue per day of the matching records instead of the records
+ * </pre>
+ */
+public class BookingQuery {
+
+    private BookingRecord.Type type;
+    private UUID resourceId;
+    // The nights the records have to overlap, the end is exclusive
+    private LocalDate from;
+    private LocalDate to;
+    private double minPrice = Double.NEGATIVE_INFINITY;
+    private double maxPrice = Double.POSITIVE_INFINITY;
+    private boolean revenue = false;
+
+    /**
+     * Parses the terms of a query.
+     *
+     * @param text the query
+     * @return the query
+     * @throws IllegalArgumentException if a term can't be parsed
+     */
+    public static BookingQuery parse(String text) {
+        BookingQuery query = new BookingQuery();
+
+        for (String term : text.trim().split("\\s+")) {
+            if (term.isEmpty()) {
+                continue;
+            }
+
+            int colon = term.indexOf(':');
+            String key = colon < 0 ? term : term.substring(0, colon);
+            String value = colon < 0 ? "" : term.substring(colon + 1);
+
+            try {
+                switch (key) {
+                    case "room" -> {
+                        query.type = BookingRecord.Type.ROOM;
+                        query.resourceId = UUID.fromString(value);
+                    }
+                    case "car" -> {
+                        query.type = BookingRecord.Type.CAR;
+                        query.resourceId = UUID.fromString(value);
+                    }
+                    case "rooms" -> query.type = BookingRecord.Type.ROOM;
+                    case "cars" -> query.type = BookingRecord.Type.CAR;
+                    case "date" -> {
+                        int range = value.indexOf("..");
+                        query.from = LocalDate.parse(range < 0 ? value : value.substring(0, range));
+                        // The last day of a range is included
+                        query.to = (range < 0 ? query.from : LocalDate.parse(value.substring(range + 2))).plusDays(1);
+                    }
+                    case "minPrice" -> query.minPrice = Double.parseDouble(value);
+                    case "maxPrice" -> query.maxPrice = Double.parseDouble(value);
+                    case "revenue" -> query.revenue = true;
+                    default -> query.resourceId = UUID.fromString(term);
+                }
+            } catch (DateTimeParseException | IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid search term: " + term, e);
+            }
+        }
+
+        if (query.from != null && !query.from.isBefore(query.to)) {
+            throw new IllegalArgumentException("The date range is empty");
+        }
+        return query;
+    }
+
+    public BookingRecord.Type getType() {
+        return type;
+    }
+
+    public UUID getResourceId() {
+        return resourceId;
+    }
+
+    public LocalDate getFrom() {
+        return from;
+    }
+
+    public LocalDate getTo() {
+        return to;
+    }
+
+    public double getMinPrice() {
+        return minPrice;
+    }
+
+    public double getMaxPrice() {
+        return maxPrice;
+    }
+
+    public boolean hasPriceRange() {
+        return minPrice != Double.NEGATIVE_INFINITY || maxPrice != Double.POSITIVE_INFINITY;
+    }
+
+    public boolean isRevenue() {
+        return revenue;
+    }
+
+    /**
+     * Checks all conditions of the query, the index only narrows the records down by one of them.
+     */
+    boolean matches(BookingRecord record) {
+        if (type != null && record.getType() != type) {
+            return false;
+        }
+        if (resourceId != null && !record.getResourceId().equals(resourceId)) {
+            return false;
+        }
+        if (from != null && (!record.getStartDate().isBefore(to) || !record.getEndDate().isAfter(from))) {
+            return false;
+        }
+        if (hasPriceRange() && (!record.hasPrice() || record.getTotalPrice() < minPrice || record.getTotalPrice() > maxPrice)) {
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,88 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * A BookingRecord is a booking of a room or a rental of a car in the
+ * {@link BookingHistoryIndex}. Records of our own commits don't know the id
+ * and price the provider assigned, they use the transaction id and have no
+ * price until the next refresh replaces them.
+ */
+public class BookingRecord {
+
+    public enum Type {
+        ROOM,
+        CAR
+    }
+
+    private final Type type;
+    private final UUID id;
+    private final UUID resourceId;
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+    // The total price, or NaN if it is not known yet
+    private final double totalPrice;
+    // The time this record was committed by us, or 0 if it was reported by the provider
+    private final long committedAt;
+
+    BookingRecord(Type type, UUID id, UUID resourceId, LocalDate startDate, LocalDate endDate, double totalPrice, long committedAt) {
+        this.type = type;
+        this.id = id;
+        this.resourceId = resourceId;
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.totalPrice = totalPrice;
+        this.committedAt = committedAt;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public UUID getResourceId() {
+        return resourceId;
+    }
+
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+
+    public LocalDate getEndDate() {
+        return endDate;
+    }
+
+    public double getTotalPrice() {
+        return totalPrice;
+    }
+
+    public boolean hasPrice() {
+        return !Double.isNaN(totalPrice);
+    }
+
+    long getCommittedAt() {
+        return committedAt;
+    }
+
+    /**
+     * @return true if the other record has the same id and values, so it doesn't have to be indexed again
+     */
+    boolean sameAs(BookingRecord other) {
+        return type == other.type && id.equals(other.id) && Objects.equals(resourceId, other.resourceId)
+                && startDate.equals(other.startDate) && endDate.equals(other.endDate)
+                && Double.compare(totalPrice, other.totalPrice) == 0 && committedAt == other.committedAt;
+    }
+
+    /**
+     * @return the number of nights or days, the end date is not included
+     */
+    long getNights() {
+        return Math.max(1, ChronoUnit.DAYS.between(startDate, endDate));
+    }
+}
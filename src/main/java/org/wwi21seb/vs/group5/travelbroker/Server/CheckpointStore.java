@@ -0,0 +1,135 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.CoordinatorContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * The CheckpointStore keeps a compact copy of all open transactions in a single
+ * file, so a restart doesn't have to replay the log of every transaction that
+ * ever got stuck. The checkpoint is written to a temporary file and moved over
+ * the previous one, so there is always one complete checkpoint.
+ * <p>
+ * Transactions that finish after a checkpoint are appended to a completion
+ * journal, otherwise they would be recovered from the checkpoint again. The
+ * journal is emptied with every checkpoint.
+ */
+class CheckpointStore {
+
+    private final Path checkpointFile;
+    private final Path temporaryFile;
+    private final Path completionJournal;
+    private final ObjectMapper mapper;
+
+    CheckpointStore(Path directory, ObjectMapper mapper) {
+        this.checkpointFile = directory.resolve("checkpoint.json");
+        this.temporaryFile = directory.resolve("checkpoint.json.tmp");
+        this.completionJournal = directory.resolve("completed.log");
+        this.mapper = mapper;
+
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads the last checkpoint without the transactions that have completed since.
+     *
+     * @return the entries of the checkpoint, empty if there is none
+     */
+    List<Entry> load() throws IOException {
+        if (!Files.exists(checkpointFile)) {
+            return List.of();
+        }
+
+        Set<UUID> completed = new HashSet<>();
+        if (Files.exists(completionJournal)) {
+            for (String line : Files.readAllLines(completionJournal, StandardCharsets.UTF_8)) {
+                // The last line may be incomplete if we crashed while appending it
+                if (line.length() == 36) {
+                    completed.add(UUID.fromString(line));
+                }
+            }
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        for (JsonNode node : mapper.readTree(checkpointFile.toFile())) {
+            CoordinatorContext context = mapper.treeToValue(node.get("context"), CoordinatorContext.class);
+            if (!completed.contains(context.getTransactionId())) {
+                entries.add(new Entry(context, node.get("retries").asInt(), node.get("parked").asBoolean()));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Replaces the checkpoint with the given entries and empties the completion journal.
+     *
+     * @param entries all open transactions
+     */
+    void write(Collection<Entry> entries) throws IOException {
+        ArrayNode root = mapper.createArrayNode();
+        for (Entry entry : entries) {
+            ObjectNode node = root.addObject();
+            node.set("context", mapper.valueToTree(entry.context));
+            node.put("retries", entry.retries);
+            node.put("parked", entry.parked);
+        }
+
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(mapper.writeValueAsBytes(root)));
+            channel.force(true);
+        }
+        Files.move(temporaryFile, checkpointFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // The completed transactions are no longer part of the checkpoint
+        Files.deleteIfExists(completionJournal);
+    }
+
+    void markCompleted(UUID transactionId) throws IOException {
+        Files.writeString(completionJournal, transactionId + "\n", StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * An Entry is a single transaction in the checkpoint.
+     */
+    static class Entry {
+        private final CoordinatorContext context;
+        // The number of times the decision was sent again without an ACK
+        private final int retries;
+        // True if the transaction is only retried in the background
+        private final boolean parked;
+
+        Entry(CoordinatorContext context, int retries, boolean parked) {
+            this.context = context;
+            this.retries = retries;
+            this.parked = parked;
+        }
+
+        CoordinatorContext getContext() {
+            return context;
+        }
+
+        int getRetries() {
+            return retries;
+        }
+
+        boolean isParked() {
+            return parked;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import org.wwi21seb.vs.group5.Model.Car;
+import org.wwi21seb.vs.group5.Model.Room;
+
+import java.time.LocalDate;
+
+/**
+ * A DatedTravelPackage is a TravelPackage that was found by a flexible search,
+ * so it also carries the dates of the stay it was priced for.
+ */
+public class DatedTravelPackage extends TravelPackage {
+
+    private final LocalDate startDate;
+    private final LocalDate endDate;
+
+    public DatedTravelPackage(Room room, Car car, double totalPrice, LocalDate startDate, LocalDate endDate) {
+        super(room, car, totalPrice);
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+
+    public LocalDate getStartDate() {
+        return startDate;
+    }
+
+    public LocalDate getEndDate() {
+        return endDate;
+    }
+}
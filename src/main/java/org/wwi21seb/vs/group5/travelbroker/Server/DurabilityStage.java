@@ -0,0 +1,277 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import org.wwi21seb.vs.group5.Logger.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The DurabilityStage takes the writes and deletes of our log off the threads
+ * that handle our messages. The handlers only enqueue a log intent and go on,
+ * the intents are carried out in order on the executor of the stage. An intent
+ * can have a callback that runs once its record is durable, which is how a
+ * decision is only sent after it was logged. If the record can't be written,
+ * the failure callback of the intent runs instead, so the caller can try again.
+ * <p>
+ * The intents that queued up while the stage was busy are carried out as one
+ * batch. Only the last intent of a transaction in a batch is carried out, since
+ * it overwrites or deletes the records of the ones before, and it is carried out
+ * at the position of that last intent, so the order of the records of different
+ * transactions is kept. The callbacks of the
+ * batch run after all of its intents are durable. The queue depth and the time
+ * until an intent is durable are summarized by {@link #describeMetrics()}.
+ * <p>
+ * A barrier is never coalesced: the intents enqueued before it are carried out
+ * before it, the ones enqueued after it only once it is durable. A barrier that
+ * fails is retried until it is written, so nothing behind it can overtake it.
+ * The records of an all-or-nothing group are barriers, since the decisions of
+ * its transactions rely on them.
+ */
+class DurabilityStage {
+    // The logger is used to log messages to the console.
+    private static final Logger LOGGER = LoggerFactory.setupLogger(DurabilityStage.class.getName());
+
+    // The delay before a failed barrier is written again, doubled up to the maximum
+    private static final long BARRIER_RETRY_MILLIS = 10;
+    private static final long MAX_BARRIER_RETRY_MILLIS = 1000;
+
+    private final Executor executor;
+    private final ConcurrentLinkedQueue<Intent> queue = new ConcurrentLinkedQueue<>();
+
+    // Set while a drain is scheduled or running, so only one drain runs at a time
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong completedIntents = new AtomicLong();
+    private final AtomicLong coalescedIntents = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+    private final AtomicLong maxWriteNanos = new AtomicLong();
+    private final AtomicLong latencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * Creates a stage that carries out the intents on the given executor. An
+     * executor that runs the drain right away makes the stage synchronous,
+     * which our simulations use to stay deterministic.
+     *
+     * @param executor the executor the intents are carried out on
+     */
+    DurabilityStage(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Creates the executor for a stage with its own writer thread.
+     *
+     * @return the executor
+     */
+    static Executor newWriterExecutor() {
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TravelBroker-Durability");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Enqueues a log intent of a transaction.
+     *
+     * @param transactionId the transaction the intent belongs to
+     * @param operation     writes or deletes the record of the transaction
+     * @param onDurable     runs once the record is durable, or null
+     */
+    void submit(UUID transactionId, Runnable operation, Runnable onDurable) {
+        submit(transactionId, operation, onDurable, null);
+    }
+
+    /**
+     * Enqueues a log intent of a transaction.
+     *
+     * @param transactionId the transaction the intent belongs to
+     * @param operation     writes or deletes the record of the transaction
+     * @param onDurable     runs once the record is durable, or null
+     * @param onFailed      runs instead of onDurable if the record couldn't be written, or null
+     */
+    void submit(UUID transactionId, Runnable operation, Runnable onDurable, Runnable onFailed) {
+        enqueue(new Intent(transactionId, operation, onDurable, onFailed, false, System.nanoTime()));
+    }
+
+    /**
+     * Enqueues a barrier, which is carried out on its own and before every intent enqueued after it.
+     *
+     * @param id        the record the barrier belongs to
+     * @param operation writes the record
+     * @param onDurable runs once the record is durable, or null
+     */
+    void submitBarrier(UUID id, Runnable operation, Runnable onDurable) {
+        enqueue(new Intent(id, operation, onDurable, null, true, System.nanoTime()));
+    }
+
+    private void enqueue(Intent intent) {
+        queue.add(intent);
+        maxQueueDepth.accumulateAndGet(queueDepth.incrementAndGet(), Math::max);
+
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            List<Intent> batch = new ArrayList<>();
+            for (Intent intent = queue.poll(); intent != null; intent = queue.poll()) {
+                batch.add(intent);
+            }
+
+            if (batch.isEmpty()) {
+                draining.set(false);
+                // An intent may have been added after our last poll, but before the flag was cleared
+                if (queue.isEmpty() || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+
+            process(batch);
+        }
+    }
+
+    private void process(List<Intent> batch) {
+        // The intents that failed to be written, a coalesced intent shares the fate of the one that replaced it
+        Map<Intent, Intent> carriedOutBy = new IdentityHashMap<>();
+        Set<Intent> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        long start = System.nanoTime();
+        List<Intent> segment = new ArrayList<>();
+        for (Intent intent : batch) {
+            if (intent.barrier) {
+                writeSegment(segment, carriedOutBy, failed);
+                segment.clear();
+                writeBarrier(intent, failed);
+                carriedOutBy.put(intent, intent);
+            } else {
+                segment.add(intent);
+            }
+        }
+        writeSegment(segment, carriedOutBy, failed);
+        long end = System.nanoTime();
+        batches.incrementAndGet();
+        writeNanos.addAndGet(end - start);
+        maxWriteNanos.accumulateAndGet(end - start, Math::max);
+
+        for (Intent intent : batch) {
+            queueDepth.decrementAndGet();
+            completedIntents.incrementAndGet();
+            latencyNanos.addAndGet(end - intent.enqueued);
+            maxLatencyNanos.accumulateAndGet(end - intent.enqueued, Math::max);
+
+            Runnable callback = failed.contains(carriedOutBy.get(intent)) ? intent.onFailed : intent.onDurable;
+            if (callback != null) {
+                try {
+                    callback.run();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Error after writing the log of transaction {0}: {1}", new Object[]{intent.transactionId, e.getMessage()});
+                }
+            }
+        }
+    }
+
+    /**
+     * Carries out the intents between two barriers, only the last intent of each transaction.
+     */
+    private void writeSegment(List<Intent> segment, Map<Intent, Intent> carriedOutBy, Set<Intent> failed) {
+        // The last intent of each transaction wins and takes its place in the order
+        Map<UUID, Intent> latest = new LinkedHashMap<>();
+        segment.forEach(intent -> {
+            latest.remove(intent.transactionId);
+            latest.put(intent.transactionId, intent);
+        });
+        coalescedIntents.addAndGet(segment.size() - latest.size());
+        segment.forEach(intent -> carriedOutBy.put(intent, latest.get(intent.transactionId)));
+
+        for (Intent intent : latest.values()) {
+            try {
+                intent.operation.run();
+            } catch (RuntimeException e) {
+                // A decision that wasn't logged must not be sent, the failure callbacks run instead
+                LOGGER.log(Level.SEVERE, "Error writing the log of transaction {0}: {1}", new Object[]{intent.transactionId, e.getMessage()});
+                failed.add(intent);
+            }
+        }
+    }
+
+    /**
+     * Writes a barrier, retrying until it is durable. The intents behind it wait meanwhile.
+     */
+    private void writeBarrier(Intent barrier, Set<Intent> failed) {
+        for (long delay = BARRIER_RETRY_MILLIS; ; delay = Math.min(delay * 2, MAX_BARRIER_RETRY_MILLIS)) {
+            try {
+                barrier.operation.run();
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Error writing the log record {0}, retrying in {1} ms: {2}", new Object[]{barrier.transactionId, delay, e.getMessage()});
+            }
+
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                // The stage is shut down, the record is not durable
+                Thread.currentThread().interrupt();
+                failed.add(barrier);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns a summary of the queue depth and the time it takes for an intent to become durable.
+     *
+     * @return the summary
+     */
+    String describeMetrics() {
+        long completed = completedIntents.get();
+        long batchCount = batches.get();
+        return String.format("Log queue %d (max %d), %d intents in %d batches (%d coalesced), write %.2f ms avg / %.2f ms max, durable after %.2f ms avg / %.2f ms max",
+                queueDepth.get(), maxQueueDepth.get(), completed, batchCount, coalescedIntents.get(),
+                batchCount == 0 ? 0 : writeNanos.get() / 1e6 / batchCount, maxWriteNanos.get() / 1e6,
+                completed == 0 ? 0 : latencyNanos.get() / 1e6 / completed, maxLatencyNanos.get() / 1e6);
+    }
+
+    /**
+     * An Intent is a pending write or delete of the log of a transaction.
+     */
+    private static class Intent {
+        private final UUID transactionId;
+        private final Runnable operation;
+        private final Runnable onDurable;
+        private final Runnable onFailed;
+        // A barrier is carried out on its own, see the class comment
+        private final boolean barrier;
+        private final long enqueued;
+
+        private Intent(UUID transactionId, Runnable operation, Runnable onDurable, Runnable onFailed, boolean barrier, long enqueued) {
+            this.transactionId = transactionId;
+            this.operation = operation;
+            this.onDurable = onDurable;
+            this.onFailed = onFailed;
+            this.barrier = barrier;
+            this.enqueued = enqueued;
+        }
+    }
+}
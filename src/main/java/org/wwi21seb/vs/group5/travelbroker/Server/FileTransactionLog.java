@@ -0,0 +1,96 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.wwi21seb.vs.group5.Logger.LoggerFactory;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.CoordinatorContext;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.LogWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The FileTransactionLog writes every context to its own file with the
+ * LogWriter of our SharedUtilities. The groups are written to their own files
+ * in -Dtravelbroker.groupLog.dir (default groups).
+ */
+public class FileTransactionLog implements TransactionLog {
+    // The logger is used to log messages to the console.
+    private static final Logger LOGGER = LoggerFactory.setupLogger(FileTransactionLog.class.getName());
+
+    private final LogWriter<CoordinatorContext> logWriter = new LogWriter<>();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Path groupDirectory = Path.of(System.getProperty("travelbroker.groupLog.dir", "groups"));
+
+    @Override
+    public void write(CoordinatorContext context) {
+        logWriter.writeLog(context.getTransactionId(), context);
+    }
+
+    @Override
+    public void delete(UUID transactionId) {
+        logWriter.deleteLog(transactionId);
+    }
+
+    @Override
+    public List<CoordinatorContext> readAll() {
+        return logWriter.readAllLogs();
+    }
+
+    @Override
+    public void writeGroup(BookingGroupRecord group) {
+        Path file = groupDirectory.resolve(group.getGroupId() + ".json");
+        Path temporaryFile = groupDirectory.resolve(group.getGroupId() + ".json.tmp");
+
+        // The group is written to a temporary file and moved, so a crash never leaves half a group
+        try {
+            Files.createDirectories(groupDirectory);
+            try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(mapper.writeValueAsBytes(group.toJson(mapper))));
+                channel.force(true);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error writing group {0}: {1}", new Object[]{group.getGroupId(), e.getMessage()});
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void deleteGroup(UUID groupId) {
+        try {
+            Files.deleteIfExists(groupDirectory.resolve(groupId + ".json"));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error deleting group {0}: {1}", new Object[]{groupId, e.getMessage()});
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public List<BookingGroupRecord> readGroups() {
+        List<BookingGroupRecord> groups = new ArrayList<>();
+        if (!Files.isDirectory(groupDirectory)) {
+            return groups;
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(groupDirectory, "*.json")) {
+            for (Path file : files) {
+                groups.add(BookingGroupRecord.fromJson(mapper.readTree(file.toFile())));
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error reading groups: {0}", e.getMessage());
+            throw new RuntimeException(e);
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,33 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import org.wwi21seb.vs.group5.Request.ReservationRequest;
+
+import java.util.UUID;
+
+/**
+ * An Itinerary is a single room and car booking within a batch booking.
+ */
+public class Itinerary {
+
+    private final ReservationRequest reservationRequest;
+    private final UUID roomId;
+    private final UUID carId;
+
+    public Itinerary(ReservationRequest reservationRequest, UUID roomId, UUID carId) {
+        this.reservationRequest = reservationRequest;
+        this.roomId = roomId;
+        this.carId = carId;
+    }
+
+    public ReservationRequest getReservationRequest() {
+        return reservationRequest;
+    }
+
+    public UUID getRoomId() {
+        return roomId;
+    }
+
+    public UUID getCarId() {
+        return carId;
+    }
+}
@@ -0,0 +1,75 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.wwi21seb.vs.group5.UDP.UDPMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The MessageCodec converts our UDPMessages from and to the bytes of a datagram.
+ * Messages are parsed straight from the receive buffer and written straight
+ * into a buffer that is reused by the encoding thread, so neither direction
+ * needs an intermediate String. The readers and writers are created once,
+ * since Jackson caches its serializers per ObjectReader and ObjectWriter.
+ */
+public class MessageCodec {
+
+    private final ObjectReader messageReader;
+    private final ObjectWriter messageWriter;
+
+    // Every thread that sends messages encodes them into its own buffer
+    private final ThreadLocal<EncodeBuffer> encodeBuffers = ThreadLocal.withInitial(EncodeBuffer::new);
+
+    public MessageCodec(ObjectMapper mapper) {
+        this.messageReader = mapper.readerFor(UDPMessage.class);
+        this.messageWriter = mapper.writerFor(UDPMessage.class);
+    }
+
+    public UDPMessage decode(byte[] data, int offset, int length) throws IOException {
+        return messageReader.readValue(data, offset, length);
+    }
+
+    /**
+     * Encodes the message into the buffer of the current thread. The content of
+     * the buffer is only valid until the thread encodes the next message.
+     *
+     * @param message the message to encode
+     * @return the buffer containing the encoded message
+     */
+    public EncodeBuffer encode(UDPMessage message) throws IOException {
+        EncodeBuffer buffer = encodeBuffers.get();
+        buffer.reset();
+        messageWriter.writeValue(buffer, message);
+        return buffer;
+    }
+
+    /**
+     * Encodes the message into a new array, for messages that are sent more than once.
+     *
+     * @param message the message to encode
+     * @return the encoded message
+     */
+    public byte[] encodeToArray(UDPMessage message) throws IOException {
+        EncodeBuffer buffer = encode(message);
+        return Arrays.copyOf(buffer.array(), buffer.size());
+    }
+
+    /**
+     * An EncodeBuffer is a ByteArrayOutputStream that exposes its array, so
+     * it can be sent without copying it.
+     */
+    public static class EncodeBuffer extends ByteArrayOutputStream {
+
+        private EncodeBuffer() {
+            super(4096);
+        }
+
+        public byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * ModelValues converts the values of the provider models into the types we
+ * use within the broker. The models of our SharedUtilities still use Date for
+ * their days, while the broker works with LocalDate.
+ */
+final class ModelValues {
+
+    private ModelValues() {
+    }
+
+    static LocalDate toLocalDate(Date date) {
+        // We don't use toInstant(), since java.sql.Date doesn't support it
+        return Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+}
@@ -0,0 +1,163 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import org.wwi21seb.vs.group5.Model.Car;
+import org.wwi21seb.vs.group5.Model.Room;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * The PackageRecommender computes the cheapest combinations of a room and a car
+ * for a stay. Only rooms and cars that fit the requested capacity are combined.
+ * <p>
+ * Both candidate lists are sorted once as primitive arrays, afterward the k
+ * cheapest pairs are taken from a bounded heap. The heap never holds more than
+ * k entries, so thousands of rooms and cars don't have to be combined with
+ * each other.
+ */
+public class PackageRecommender {
+
+    // The position of a room or car in its list is stored in the lower bits of the sort key
+    private static final int INDEX_BITS = 24;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+    /**
+     * Returns the cheapest room and car combinations for the given stay.
+     *
+     * @param rooms    the available rooms
+     * @param cars     the available cars
+     * @param capacity the number of persons, both the room and the car have to fit them
+     * @param nights   the number of nights of the stay
+     * @param limit    the maximum number of packages
+     * @return the packages, ordered by their total price
+     */
+    public List<TravelPackage> recommend(List<Room> rooms, List<Car> cars, int capacity, long nights, int limit) {
+        if (rooms.size() > INDEX_MASK || cars.size() > INDEX_MASK) {
+            throw new IllegalArgumentException("Too many rooms or cars to rank");
+        }
+
+        long[] rankedRooms = rank(rooms, capacity, Room::getCapacity, Room::getPricePerNight);
+        long[] rankedCars = rank(cars, capacity, Car::getCapacity, Car::getPricePerDay);
+        List<TravelPackage> packages = new ArrayList<>(Math.max(0, limit));
+
+        if (limit <= 0 || rankedRooms.length == 0 || rankedCars.length == 0) {
+            return packages;
+        }
+
+        // The heap contains the positions in the ranked arrays and their combined price in cents.
+        // We start with the cheapest car for each of the k cheapest rooms, every time a pair is
+        // taken, the pair with the next cheapest car for the same room is added.
+        int heapCapacity = Math.min(limit, rankedRooms.length);
+        long[] heapPrice = new long[heapCapacity];
+        int[] heapRoom = new int[heapCapacity];
+        int[] heapCar = new int[heapCapacity];
+        int heapSize = 0;
+
+        for (int room = 0; room < heapCapacity; room++) {
+            heapSize = push(heapPrice, heapRoom, heapCar, heapSize, price(rankedRooms[room]) + price(rankedCars[0]), room, 0);
+        }
+
+        while (packages.size() < limit && heapSize > 0) {
+            int room = heapRoom[0];
+            int car = heapCar[0];
+            heapSize = pop(heapPrice, heapRoom, heapCar, heapSize);
+
+            Room selectedRoom = rooms.get(index(rankedRooms[room]));
+            Car selectedCar = cars.get(index(rankedCars[car]));
+            double totalPrice = (selectedRoom.getPricePerNight() + selectedCar.getPricePerDay()) * nights;
+            packages.add(new TravelPackage(selectedRoom, selectedCar, totalPrice));
+
+            if (car + 1 < rankedCars.length) {
+                heapSize = push(heapPrice, heapRoom, heapCar, heapSize, price(rankedRooms[room]) + price(rankedCars[car + 1]), room, car + 1);
+            }
+        }
+
+        return packages;
+    }
+
+    /**
+     * Sorts the items that fit the capacity by their price. Each entry contains
+     * the price in cents and the position of the item in the list.
+     */
+    private static <T> long[] rank(List<T> items, int capacity, ToIntFunction<T> capacityOf, ToDoubleFunction<T> priceOf) {
+        long[] keys = new long[items.size()];
+        int count = 0;
+
+        for (int i = 0; i < keys.length; i++) {
+            T item = items.get(i);
+            if (capacityOf.applyAsInt(item) < capacity) {
+                continue;
+            }
+
+            long cents = Math.round(priceOf.applyAsDouble(item) * 100);
+            keys[count++] = (cents << INDEX_BITS) | i;
+        }
+
+        long[] ranked = Arrays.copyOf(keys, count);
+        Arrays.sort(ranked);
+        return ranked;
+    }
+
+    private static long price(long key) {
+        return key >>> INDEX_BITS;
+    }
+
+    private static int index(long key) {
+        return (int) (key & INDEX_MASK);
+    }
+
+    private static int push(long[] price, int[] room, int[] car, int size, long newPrice, int newRoom, int newCar) {
+        int i = size;
+
+        // Sift the new entry up until its parent is cheaper
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (price[parent] <= newPrice) {
+                break;
+            }
+            price[i] = price[parent];
+            room[i] = room[parent];
+            car[i] = car[parent];
+            i = parent;
+        }
+
+        price[i] = newPrice;
+        room[i] = newRoom;
+        car[i] = newCar;
+        return size + 1;
+    }
+
+    private static int pop(long[] price, int[] room, int[] car, int size) {
+        int last = size - 1;
+        long lastPrice = price[last];
+        int lastRoom = room[last];
+        int lastCar = car[last];
+        int i = 0;
+
+        // Sift the last entry down from the root until both children are more expensive
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= last) {
+                break;
+            }
+            if (child + 1 < last && price[child + 1] < price[child]) {
+                child++;
+            }
+            if (lastPrice <= price[child]) {
+                break;
+            }
+            price[i] = price[child];
+            room[i] = room[child];
+            car[i] = car[child];
+            i = child;
+        }
+
+        price[i] = lastPrice;
+        room[i] = lastRoom;
+        car[i] = lastCar;
+        return last;
+    }
+}
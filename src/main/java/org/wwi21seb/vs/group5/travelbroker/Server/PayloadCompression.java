@@ -0,0 +1,225 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The PayloadCompression handles the optional compression of the data of our
+ * UDPMessages. Compressed data starts with {@link #MARKER}, followed by the
+ * Base64 encoded Deflate stream. The stream is primed with a dictionary of the
+ * field names of our models, since they repeat in every list element and make
+ * up most of a short payload. Both sides have to use the same dictionary.
+ * <p>
+ * The compression is negotiated per participant: if enabled with
+ * -Dtravelbroker.compression.advertise, we advertise that we accept compressed
+ * data by appending {@link #CAPABILITY} to the sender of our queries, whose
+ * replies are the large payloads. Providers that don't know the capability
+ * would see a different sender, so it is off by default. Once a participant has sent compressed
+ * data, we know it can read it as well and compress our payloads above the
+ * threshold for it.
+ * <p>
+ * The data of a UDPMessage is a JSON string, so the Deflate stream has to be
+ * Base64 encoded, which adds a third to its size. The compressed form is
+ * therefore only used if it is still shorter than the original data, and the
+ * metrics report the ratio including the Base64 overhead.
+ */
+class PayloadCompression {
+
+    static final String MARKER = "deflate:";
+
+    // Appended to the sender of our queries to advertise that we accept compressed replies
+    static final String CAPABILITY = ";accept=deflate";
+
+    // The field names and values that repeat in our payloads, the most frequent ones come last
+    private static final byte[] DICTIONARY = ("\"transactionId\":\"\",\"coordinator\":{\"name\":\"TravelBroker\",\"url\":\"\",\"port\":"
+            + "\"participants\":[{\"name\":\"\",\"vote\":\"PENDING\",\"done\":false,\"bookingContext\":{\"resourceId\":\"\",\"numberOfPersons\":"
+            + "\"manufacturer\":\"\",\"model\":\"\",\"pricePerDay\":\"type\":\"\",\"pricePerNight\":"
+            + "\"car_id\":\"\",\"start_date\":\"\",\"end_date\":\"\",\"total_price\":"
+            + "\"roomId\":\"\",\"startDate\":\"\",\"endDate\":\"\",\"totalPrice\":"
+            + "\"capacity\":},{\"id\":\"").getBytes(StandardCharsets.UTF_8);
+
+    // Payloads below this length are not worth compressing
+    private final int threshold;
+
+    // The participants that have sent us compressed data
+    private final Set<String> negotiated = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong compressedMessages = new AtomicLong();
+    private final AtomicLong compressInputBytes = new AtomicLong();
+    private final AtomicLong compressOutputBytes = new AtomicLong();
+    private final AtomicLong compressNanos = new AtomicLong();
+    private final AtomicLong decompressedMessages = new AtomicLong();
+    private final AtomicLong decompressInputBytes = new AtomicLong();
+    private final AtomicLong decompressOutputBytes = new AtomicLong();
+    private final AtomicLong decompressNanos = new AtomicLong();
+
+    PayloadCompression(int threshold) {
+        this.threshold = threshold;
+    }
+
+    boolean isNegotiated(String participant) {
+        return negotiated.contains(participant);
+    }
+
+    /**
+     * @param sender our name
+     * @return the sender of a message that advertises that we accept compressed data
+     */
+    static String advertise(String sender) {
+        return sender + CAPABILITY;
+    }
+
+    /**
+     * Compresses the data if it is long enough and the compressed form, including
+     * its Base64 encoding, is shorter. Otherwise it is returned as is.
+     *
+     * @param data the data of a message
+     * @return the compressed or the original data
+     */
+    String compress(String data) {
+        if (data == null || data.length() < threshold) {
+            return data;
+        }
+
+        long start = System.nanoTime();
+        byte[] raw = data.getBytes(StandardCharsets.UTF_8);
+
+        Deflater deflater = new Deflater();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2);
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(raw);
+            deflater.finish();
+
+            byte[] chunk = new byte[1024];
+            while (!deflater.finished()) {
+                compressed.write(chunk, 0, deflater.deflate(chunk));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        String result = MARKER + Base64.getEncoder().encodeToString(compressed.toByteArray());
+        compressNanos.addAndGet(System.nanoTime() - start);
+        if (result.length() >= raw.length) {
+            // The Base64 encoding ate up the gain
+            return data;
+        }
+
+        compressedMessages.incrementAndGet();
+        compressInputBytes.addAndGet(raw.length);
+        compressOutputBytes.addAndGet(result.length());
+        return result;
+    }
+
+    /**
+     * Parses the data of a message with the given reader. Compressed data is
+     * decompressed while it is parsed, without inflating it into a buffer first.
+     *
+     * @param reader      the reader for the type of the data
+     * @param data        the data of the message
+     * @param participant the participant that sent the message
+     * @return the parsed data
+     */
+    <T> T read(ObjectReader reader, String data, String participant) throws IOException {
+        if (data == null || !data.startsWith(MARKER)) {
+            return reader.readValue(data);
+        }
+
+        negotiated.add(participant);
+        long start = System.nanoTime();
+
+        // Base64 only contains ASCII characters, so each character is one byte
+        byte[] encoded = data.getBytes(StandardCharsets.ISO_8859_1);
+        InputStream base64 = Base64.getDecoder().wrap(new ByteArrayInputStream(encoded, MARKER.length(), encoded.length - MARKER.length()));
+
+        try (DictionaryInflaterInputStream inflater = new DictionaryInflaterInputStream(base64)) {
+            T value = reader.readValue(inflater);
+
+            decompressedMessages.incrementAndGet();
+            decompressInputBytes.addAndGet(data.length());
+            decompressOutputBytes.addAndGet(inflater.getBytesWritten());
+            decompressNanos.addAndGet(System.nanoTime() - start);
+            return value;
+        }
+    }
+
+    /**
+     * Returns a summary of the compression ratios and the time spent on compressing.
+     *
+     * @return the summary
+     */
+    String describeMetrics() {
+        return String.format("Compressed %d payloads (ratio %.2f, %.1f ms), decompressed %d payloads (ratio %.2f, %.1f ms)",
+                compressedMessages.get(), ratio(compressInputBytes.get(), compressOutputBytes.get()), compressNanos.get() / 1e6,
+                decompressedMessages.get(), ratio(decompressOutputBytes.get(), decompressInputBytes.get()), decompressNanos.get() / 1e6);
+    }
+
+    private static double ratio(long raw, long compressed) {
+        return compressed == 0 ? 0 : (double) raw / compressed;
+    }
+
+    /**
+     * The DictionaryInflaterInputStream sets our dictionary when the Deflate
+     * stream asks for it. The InflaterInputStream would otherwise report the
+     * end of the stream.
+     */
+    private static class DictionaryInflaterInputStream extends InflaterInputStream {
+
+        // The totals are kept when the stream is closed, since Jackson closes it after parsing
+        private long bytesRead = 0;
+        private long bytesWritten = 0;
+        private boolean closed = false;
+
+        private DictionaryInflaterInputStream(InputStream in) {
+            super(in, new Inflater());
+        }
+
+        private long getBytesRead() {
+            return closed ? bytesRead : inf.getBytesRead();
+        }
+
+        private long getBytesWritten() {
+            return closed ? bytesWritten : inf.getBytesWritten();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+
+            if (n == -1 && inf.needsDictionary()) {
+                inf.setDictionary(DICTIONARY);
+                n = super.read(b, off, len);
+            }
+
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+
+            bytesRead = inf.getBytesRead();
+            bytesWritten = inf.getBytesWritten();
+            closed = true;
+
+            super.close();
+            // We passed our own inflater, so the stream doesn't end it
+            inf.end();
+        }
+    }
+}
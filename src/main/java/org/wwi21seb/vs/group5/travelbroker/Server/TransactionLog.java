@@ -0,0 +1,26 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import org.wwi21seb.vs.group5.TwoPhaseCommit.CoordinatorContext;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The TransactionLog stores the contexts of our open transactions, so they can
+ * be recovered after a crash. The all-or-nothing groups are stored next to
+ * them, so their transactions are still decided together after a crash.
+ */
+public interface TransactionLog {
+
+    void write(CoordinatorContext context);
+
+    void delete(UUID transactionId);
+
+    List<CoordinatorContext> readAll();
+
+    void writeGroup(BookingGroupRecord group);
+
+    void deleteGroup(UUID groupId);
+
+    List<BookingGroupRecord> readGroups();
+}
@@ -0,0 +1,280 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import org.wwi21seb.vs.group5.TwoPhaseCommit.CoordinatorContext;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.Participant;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.TransactionState;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The TransactionTable keeps the state, the votes and the ACKs of our open
+ * transactions in a few primitive arrays, so the votes and ACKs are counted
+ * without walking the participants of a CoordinatorContext. The table does
+ * not replace the contexts: they are what we log and send, so every vote and
+ * ACK updates both, and the table only replaces the walks over the
+ * participants that decide whether all votes or ACKs are in. The decisions on
+ * the receiving thread are made from this table.
+ * <p>
+ * A transaction id is stored as its two longs in an open-addressing table
+ * with linear probing. All other information of a transaction fits into a
+ * single long:
+ * <pre>
+ * bits 0-3   the ordinal of the TransactionState
+ * bits 4-7   the number of participants
+ * 3 bits per participant, from bit 8: the vote (2 bits) and whether it is done
+ * </pre>
+ * A participant is addressed by its index in the participants of the context,
+ * so every update is a single lookup and a bit operation.
+ */
+public class TransactionTable {
+
+    public static final int MAX_PARTICIPANTS = 15;
+
+    private static final long STATE_MASK = 0xFL;
+    private static final int COUNT_SHIFT = 4;
+    private static final long COUNT_MASK = 0xFL;
+    private static final int PARTICIPANT_SHIFT = 8;
+    private static final int BITS_PER_PARTICIPANT = 3;
+
+    private static final long VOTE_PENDING = 0;
+    private static final long VOTE_YES = 1;
+    private static final long VOTE_NO = 2;
+    private static final long DONE = 4;
+
+    // The slots are empty, used, or deleted, which keeps the probe sequences of other ids intact
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final byte DELETED = 2;
+
+    private static final TransactionState[] STATES = TransactionState.values();
+
+    // The bit of every participant at the start of its bits, by the number of participants
+    private static final long[] PARTICIPANT_BITS = new long[MAX_PARTICIPANTS + 1];
+
+    static {
+        for (int count = 1; count <= MAX_PARTICIPANTS; count++) {
+            PARTICIPANT_BITS[count] = PARTICIPANT_BITS[count - 1] | (1L << shift(count - 1));
+        }
+    }
+
+    private long[] mostSignificantBits;
+    private long[] leastSignificantBits;
+    private long[] bits;
+    private byte[] slots;
+
+    private int size = 0;
+    // The used and the deleted slots, the table is grown or cleaned up before they fill half of it
+    private int occupied = 0;
+
+    public TransactionTable(int expectedTransactions) {
+        allocate(Integer.highestOneBit(Math.max(16, expectedTransactions) * 2 - 1) << 1);
+    }
+
+    /**
+     * The outcome of the votes of a transaction.
+     */
+    public enum Outcome {
+        // At least one participant hasn't voted yet
+        PENDING,
+        // All participants voted YES
+        COMMIT,
+        // All participants voted and at least one voted NO
+        ABORT
+    }
+
+    /**
+     * Adds a transaction with the state, the votes and the ACKs of its context.
+     *
+     * @param context the context of the transaction
+     */
+    public synchronized void add(CoordinatorContext context) {
+        List<Participant> participants = context.getParticipants();
+        if (participants.size() > MAX_PARTICIPANTS) {
+            throw new IllegalArgumentException("Too many participants: " + participants.size());
+        }
+
+        long value = context.getTransactionState().ordinal() | ((long) participants.size() << COUNT_SHIFT);
+        for (int i = 0; i < participants.size(); i++) {
+            Participant participant = participants.get(i);
+            long participantBits = switch (participant.getVote()) {
+                case YES -> VOTE_YES;
+                case NO -> VOTE_NO;
+                default -> VOTE_PENDING;
+            };
+            if (participant.isDone()) {
+                participantBits |= DONE;
+            }
+            value |= participantBits << shift(i);
+        }
+
+        UUID transactionId = context.getTransactionId();
+        int slot = find(transactionId.getMostSignificantBits(), transactionId.getLeastSignificantBits());
+        if (slot >= 0) {
+            bits[slot] = value;
+            return;
+        }
+
+        if (occupied + 1 > slots.length / 2) {
+            // Grow the table if it is actually full, otherwise only the deleted slots are dropped
+            allocateAndCopy(size + 1 > slots.length / 4 ? slots.length * 2 : slots.length);
+        }
+        insert(transactionId.getMostSignificantBits(), transactionId.getLeastSignificantBits(), value);
+        size++;
+    }
+
+    public synchronized void remove(UUID transactionId) {
+        int slot = find(transactionId.getMostSignificantBits(), transactionId.getLeastSignificantBits());
+        if (slot >= 0) {
+            slots[slot] = DELETED;
+            size--;
+        }
+    }
+
+    public synchronized boolean contains(UUID transactionId) {
+        return find(transactionId.getMostSignificantBits(), transactionId.getLeastSignificantBits()) >= 0;
+    }
+
+    /**
+     * @return the state of the transaction, or null if it is unknown
+     */
+    public synchronized TransactionState getState(UUID transactionId) {
+        int slot = find(transactionId.getMostSignificantBits(), transactionId.getLeastSignificantBits());
+        return slot < 0 ? null : STATES[(int) (bits[slot] & STATE_MASK)];
+    }
+
+    public synchronized void setState(UUID transactionId, TransactionState state) {
+        int slot = find(transactionId.getMostSignificantBits(), transactionId.getLeastSignificantBits());
+        if (slot >= 0) {
+            bits[slot] = (bits[slot] & ~STATE_MASK) | state.ordinal();
+        }
+    }
+
+    /**
+     * Records the vote of a participant.
+     *
+     * @param transactionId the id of the transaction
+     * @param participant   the index of the participant in the context
+     * @param yes           true if the participant voted YES
+     * @return the outcome of all votes so far, or null if the transaction is unknown
+     */
+    public synchronized Outcome vote(UUID transactionId, int participant, boolean yes) {
+        int slot = find(transactionId.getMostSignificantBits(), transactionId.getLeastSignificantBits());
+        if (slot < 0) {
+            return null;
+        }
+
+        int shift = shift(participant);
+        long value = (bits[slot] & ~(0b11L << shift)) | ((yes ? VOTE_YES : VOTE_NO) << shift);
+        bits[slot] = value;
+
+        long participants = PARTICIPANT_BITS[count(value)];
+        // A vote is either 01 or 10, so every participant that voted has exactly one of its vote bits set
+        if (Long.bitCount(value & (0b11L * participants)) < count(value)) {
+            return Outcome.PENDING;
+        }
+        return (value & (VOTE_NO * participants)) == 0 ? Outcome.COMMIT : Outcome.ABORT;
+    }
+
+    /**
+     * Records the ACK of a participant for the decision.
+     *
+     * @param transactionId the id of the transaction
+     * @param participant   the index of the participant in the context
+     * @return true if all participants have acknowledged the decision
+     */
+    public synchronized boolean acknowledge(UUID transactionId, int participant) {
+        int slot = find(transactionId.getMostSignificantBits(), transactionId.getLeastSignificantBits());
+        if (slot < 0) {
+            return false;
+        }
+
+        long value = bits[slot] | (DONE << shift(participant));
+        bits[slot] = value;
+        return pendingAcks(value) == 0;
+    }
+
+    /**
+     * @return the number of participants that haven't acknowledged the decision, or 0 if the transaction is unknown
+     */
+    public synchronized int pendingAcks(UUID transactionId) {
+        int slot = find(transactionId.getMostSignificantBits(), transactionId.getLeastSignificantBits());
+        return slot < 0 ? 0 : pendingAcks(bits[slot]);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the bytes used by the arrays of the table
+     */
+    public synchronized long footprintBytes() {
+        return (long) slots.length * (Long.BYTES * 3 + 1);
+    }
+
+    private static int shift(int participant) {
+        return PARTICIPANT_SHIFT + participant * BITS_PER_PARTICIPANT;
+    }
+
+    private static int count(long value) {
+        return (int) ((value >>> COUNT_SHIFT) & COUNT_MASK);
+    }
+
+    private static int pendingAcks(long value) {
+        return count(value) - Long.bitCount(value & (DONE * PARTICIPANT_BITS[count(value)]));
+    }
+
+    private int find(long msb, long lsb) {
+        int mask = slots.length - 1;
+        for (int slot = hash(msb, lsb) & mask; slots[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (slots[slot] == USED && mostSignificantBits[slot] == msb && leastSignificantBits[slot] == lsb) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(long msb, long lsb, long value) {
+        int mask = slots.length - 1;
+        int slot = hash(msb, lsb) & mask;
+        while (slots[slot] == USED) {
+            slot = (slot + 1) & mask;
+        }
+
+        if (slots[slot] == EMPTY) {
+            occupied++;
+        }
+        slots[slot] = USED;
+        mostSignificantBits[slot] = msb;
+        leastSignificantBits[slot] = lsb;
+        bits[slot] = value;
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void allocate(int capacity) {
+        mostSignificantBits = new long[capacity];
+        leastSignificantBits = new long[capacity];
+        bits = new long[capacity];
+        slots = new byte[capacity];
+        occupied = 0;
+    }
+
+    private void allocateAndCopy(int capacity) {
+        long[] oldMostSignificantBits = mostSignificantBits;
+        long[] oldLeastSignificantBits = leastSignificantBits;
+        long[] oldBits = bits;
+        byte[] oldSlots = slots;
+
+        allocate(capacity);
+        for (int slot = 0; slot < oldSlots.length; slot++) {
+            if (oldSlots[slot] == USED) {
+                insert(oldMostSignificantBits[slot], oldLeastSignificantBits[slot], oldBits[slot]);
+            }
+        }
+    }
+}
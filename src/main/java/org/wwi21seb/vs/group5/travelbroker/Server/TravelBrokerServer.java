@@ -3,6 +3,7 @@ package org.wwi21seb.vs.group5.travelbroker.Server;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.wwi21seb.vs.group5.Logger.LoggerFactory;
 import org.wwi21seb.vs.group5.Model.Booking;
 import org.wwi21seb.vs.group5.Model.Car;
@@ -14,19 +15,46 @@ import org.wwi21seb.vs.group5.Request.TransactionResult;
 import org.wwi21seb.vs.group5.TwoPhaseCommit.*;
 import org.wwi21seb.vs.group5.UDP.Operation;
 import org.wwi21seb.vs.group5.UDP.UDPMessage;
+import org.wwi21seb.vs.group5.travelbroker.Logging.AsyncEventLogger;
+import org.wwi21seb.vs.group5.travelbroker.Logging.LogWriteEvent;
+import org.wwi21seb.vs.group5.travelbroker.Logging.MessageEvent;
+import org.wwi21seb.vs.group5.travelbroker.Logging.PhaseEvent;
+import org.wwi21seb.vs.group5.travelbroker.Logging.QueryDecisionEvent;
+import org.wwi21seb.vs.group5.travelbroker.Logging.RetransmissionEvent;
+import org.wwi21seb.vs.group5.travelbroker.Logging.TimeoutEvent;
+import org.wwi21seb.vs.group5.travelbroker.Logging.TransactionTracer;
+import org.wwi21seb.vs.group5.travelbroker.Network.Scheduler;
+import org.wwi21seb.vs.group5.travelbroker.Network.SystemScheduler;
+import org.wwi21seb.vs.group5.travelbroker.Network.TcpTransport;
+import org.wwi21seb.vs.group5.travelbroker.Network.Transport;
+import org.wwi21seb.vs.group5.travelbroker.Network.UdpTransport;
+import org.wwi21seb.vs.group5.travelbroker.Standby.JournalShipper;
+import org.wwi21seb.vs.group5.travelbroker.Subscription.AvailabilityReplica;
+import org.wwi21seb.vs.group5.travelbroker.Subscription.SubscriptionClient;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * The TravelBrokerServer represents the server in our Travel Broker and
@@ -37,26 +65,132 @@ public class TravelBrokerServer {
     // The logger is used to log messages to the console.
     private static final Logger LOGGER = LoggerFactory.setupLogger(TravelBrokerServer.class.getName());
 
-    // The logWriter is used to write our Contexts to a file. This is used to
+    // The events are used for logging on our hot paths, they are only recorded if their
+    // level is enabled and are written to the LOGGER on a background thread.
+    private static final AsyncEventLogger EVENTS = AsyncEventLogger.create(LOGGER);
+
+    // The tracer records the timeline of a sample of our transactions, see -Dtravelbroker.trace.sampleRate.
+    private final TransactionTracer tracer = TransactionTracer.create();
+
+    // The transactionLog is used to write our Contexts to a file. This is used to
     // recover from a crash.
-    private final LogWriter<CoordinatorContext> logWriter = new LogWriter<>();
+    private final TransactionLog transactionLog;
+
+    // The durability stage writes and deletes our logs on its own thread, so a slow disk doesn't
+    // hold up the receiving thread. Our decisions are only sent once their log is durable.
+    private final DurabilityStage durability;
+
+    // A log write that failed is tried again after this delay, until it succeeds or the transaction is finished
+    private static final long LOG_RETRY_MILLIS = 1000;
+
+    // The checkpointStore periodically saves all open transactions in one file, after which
+    // their logs are deleted. A restart only has to read the checkpoint and the logs written
+    // since. The checkpoints are written to -Dtravelbroker.checkpoint.dir (default checkpoints)
+    // every -Dtravelbroker.checkpoint.intervalSeconds (default 60).
+    private final CheckpointStore checkpointStore;
+
+    // The logLock keeps the logs from being written while a checkpoint is taken and they are deleted.
+    private final ReentrantReadWriteLock logLock = new ReentrantReadWriteLock();
+
+    // The ids of the transactions in the last checkpoint, only their completion has to be journaled.
+    private volatile Set<UUID> checkpointed = Set.of();
 
     // The pendingRequests HashMap stores the current transactions and the action
     // that should be executed once the request is fulfilled. This is used to map
     // incoming UDP messages to its existing context.
     private final ConcurrentHashMap<UUID, CompletableFuture<UDPMessage>> pendingRequests;
 
-    private final ConcurrentHashMap<UUID, CoordinatorContext> contexts = new ConcurrentHashMap<>();
+    // The multicastRequests store the pending replies of the queries that were sent to the
+    // multicast group. All participants answer with the same transaction id, so the replies
+    // are mapped by the name of the participant.
+    private final ConcurrentHashMap<UUID, Map<String, CompletableFuture<UDPMessage>>> multicastRequests = new ConcurrentHashMap<>();
+
+    // The multicastGroup reaches all participants with a single datagram. It is only used if
+    // -Dtravelbroker.multicast.group is set and all providers have joined the group on
+    // -Dtravelbroker.multicast.port (default 5100). The participants still answer via unicast.
+    private final InetAddress multicastGroup;
+    private final int multicastPort;
 
-    // The socket is used to receive and send messages via UDP.
-    private final DatagramSocket socket;
+    private final ConcurrentHashMap<UUID, CoordinatorContext> contexts = new ConcurrentHashMap<>();
 
-    // The receive buffer is used to handle incoming messages.
-    private final byte[] receiveBuffer = new byte[4096];
+    // The transactionTable counts the votes and ACKs of the open and parked transactions,
+    // so they don't have to be counted by walking the participants of the contexts. It is kept
+    // next to the contexts, which remain the state we log, so a transaction the table misses
+    // is added again from its context.
+    private final TransactionTable transactionTable = new TransactionTable(1024);
+
+    // The parked transactions have been decided, but a participant hasn't acknowledged the decision
+    // after -Dtravelbroker.checkpoint.parkAfterRetries retries (default 30). They are no longer
+    // retried every few seconds, only every -Dtravelbroker.checkpoint.parkedRetrySeconds (default 300),
+    // and are resumed as soon as a participant asks for the result or acknowledges the decision.
+    private final ConcurrentHashMap<UUID, CoordinatorContext> parked = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, Integer> retryCounts = new ConcurrentHashMap<>();
+    private final int parkAfterRetries = Integer.getInteger("travelbroker.checkpoint.parkAfterRetries", 30);
+
+    // The maintenance runs the checkpoints and the retries of the parked transactions.
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TravelBroker-Maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // The groups map the transactions of an all-or-nothing batch to their group. Every group is
+    // logged before the PREPAREs of its transactions and again with its decision before any of
+    // them is decided, so its transactions are decided together after a crash as well. The
+    // loggedGroups hold the records that are in our log until the decisions of all of their
+    // transactions are durable.
+    private final ConcurrentHashMap<UUID, BookingGroup> groups = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, BookingGroupRecord> loggedGroups = new ConcurrentHashMap<>();
+
+    // The transport is used to receive and send messages, usually via UDP.
+    private final Transport transport;
+
+    // The scheduler runs the timeouts of our requests and transactions.
+    private final Scheduler scheduler;
+
+    // The queries (GET_AVAILABILITY and GET_BOOKINGS) have their own lane, so a burst of searches
+    // doesn't delay the votes and ACKs of our transactions. The 2PC messages are handled right on
+    // the receiving thread, the query replies are handed to the queryLane, which also parses them.
+    private final ExecutorService queryLane = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TravelBroker-QueryLane");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // With -Dtravelbroker.querySocket=true, the queries are also sent and received on their own
+    // socket, so their replies don't queue up in front of the 2PC messages. The replies can be
+    // much larger than our other messages, so its buffer fits the maximum UDP payload.
+    private final Transport queryTransport;
+
+    // The operationTransports override the transport of single queries, e.g. with
+    // -Dtravelbroker.transport.GET_BOOKINGS=tcp the bookings are requested over a persistent
+    // TCP connection to each participant. The participants accept these connections on their
+    // UDP port plus -Dtravelbroker.tcp.portOffset (default 0). The 2PC messages always use UDP.
+    private final Map<Operation, Transport> operationTransports;
 
     // The mapper is used to parse our UDPMessages into strings and vice versa.
     private final ObjectMapper mapper;
 
+    // The codec parses and writes our UDPMessages directly from and to bytes.
+    private final MessageCodec codec;
+
+    // The readers for the data of the received messages are created once and reused.
+    private final ObjectReader resultReader;
+    private final ObjectReader roomsReader;
+    private final ObjectReader carsReader;
+    private final ObjectReader bookingsReader;
+    private final ObjectReader rentalsReader;
+
+    // The compression is used for large payloads of participants that support it. Payloads
+    // are compressed from -Dtravelbroker.compression.threshold characters on (default 512).
+    private final PayloadCompression compression = new PayloadCompression(Integer.getInteger("travelbroker.compression.threshold", 512));
+
+    // With -Dtravelbroker.compression.advertise=true our queries advertise that we accept compressed
+    // replies, which changes the sender the providers see. Otherwise, and for the 2PC messages, we
+    // keep our plain name.
+    private static final String QUERY_SENDER = Boolean.getBoolean("travelbroker.compression.advertise")
+            ? PayloadCompression.advertise("TravelBroker") : "TravelBroker";
+
     // The coordinator is used to initiate our Context with the Coordinator (in our case
     // the TravelBrokerServer (this class)).
     private final Coordinator coordinator;
@@ -65,25 +199,156 @@ public class TravelBrokerServer {
     // In our case the HotelProvider and CarProvider.
     private final List<Participant> participants;
 
+    // The recommender combines the available rooms and cars to the cheapest packages.
+    private final PackageRecommender recommender = new PackageRecommender();
+
+    // A flexible search requests the availability of every date window at once, so the
+    // number of windows is limited.
+    private static final int MAX_FLEXIBLE_WINDOWS = 62;
+
+    // The bookedIntervals store the committed bookings per room and car, so we can reject
+    // requests that would conflict with them before sending a PREPARE. They are rebuilt
+    // from the booking history on every refresh.
+    private final BookingIntervalIndex bookedIntervals = new BookingIntervalIndex();
+
+    // The bookingHistory holds the bookings and rentals of both providers for the searches of
+    // the "Get Bookings" view. It is fed by our commits and refreshed by every GET_BOOKINGS.
+    private final BookingHistoryIndex bookingHistory = new BookingHistoryIndex();
+
+    // The replica holds the availability that is pushed by the providers. The subscriptionClient
+    // is only created if subscriptions are enabled with -Dtravelbroker.subscriptions=true, since
+    // the providers have to support them.
+    private final AvailabilityReplica replica;
+    private final SubscriptionClient subscriptionClient;
+
+    // The journalShipper sends every change of our log to a standby coordinator. It is only
+    // created if the standby is configured with -Dtravelbroker.standby.port (and optionally
+    // -Dtravelbroker.standby.host), the heartbeat interval is -Dtravelbroker.standby.heartbeatMillis.
+    private final JournalShipper journalShipper;
+
     public TravelBrokerServer(int port) throws SocketException {
-        socket = new DatagramSocket(port);
+        this(port, null, null, true);
+    }
+
+    /**
+     * Creates a server that recovers the given contexts instead of the ones in its log.
+     * The standby uses this to take over the transactions of a failed primary. The
+     * server doesn't ship its journal, since -Dtravelbroker.standby.port is the port
+     * the standby itself was listening on.
+     *
+     * @param port              the port to receive messages on
+     * @param recoveredContexts the contexts to recover
+     * @param recoveredGroups   the groups of the recovered contexts
+     */
+    public TravelBrokerServer(int port, Collection<CoordinatorContext> recoveredContexts, Collection<BookingGroupRecord> recoveredGroups) throws SocketException {
+        this(port, recoveredContexts, recoveredGroups, false);
+    }
+
+    private TravelBrokerServer(int port, Collection<CoordinatorContext> recoveredContexts, Collection<BookingGroupRecord> recoveredGroups,
+                               boolean shipJournal) throws SocketException {
+        this(new UdpTransport(port, 4096, false, Thread.MAX_PRIORITY),
+                Boolean.getBoolean("travelbroker.querySocket") ? new UdpTransport(0, 65507, true, Thread.NORM_PRIORITY) : null,
+                configureOperationTransports(), new SystemScheduler(), new FileTransactionLog(), DurabilityStage.newWriterExecutor(),
+                Path.of(System.getProperty("travelbroker.checkpoint.dir", "checkpoints")), recoveredContexts, recoveredGroups, shipJournal);
+    }
+
+    /**
+     * Creates a server on the given transport and clock. Our simulations use this to
+     * run the protocol on a simulated network.
+     *
+     * @param transport           the transport for all messages
+     * @param queryTransport      the transport for the queries, or null to use the transport
+     * @param operationTransports the transports of the queries that don't use the query transport
+     * @param scheduler           the clock of the timeouts
+     * @param transactionLog      the log of our transactions
+     * @param logExecutor         the executor the log is written on, a direct executor writes it synchronously
+     * @param checkpointDirectory the directory of our checkpoints, it is created if it doesn't exist
+     * @param recoveredContexts   the contexts to recover, or null to read them from the log
+     * @param recoveredGroups     the groups of the recovered contexts, only used with recoveredContexts
+     * @param shipJournal         whether the journal is shipped to the standby of -Dtravelbroker.standby.port
+     */
+    public TravelBrokerServer(Transport transport, Transport queryTransport, Map<Operation, Transport> operationTransports,
+                              Scheduler scheduler, TransactionLog transactionLog, Executor logExecutor, Path checkpointDirectory,
+                              Collection<CoordinatorContext> recoveredContexts, Collection<BookingGroupRecord> recoveredGroups,
+                              boolean shipJournal) throws SocketException {
+        int port = transport.getLocalPort();
+        this.transport = transport;
+        this.queryTransport = queryTransport;
+        this.operationTransports = operationTransports;
+        this.scheduler = scheduler;
+        this.transactionLog = transactionLog;
+        this.durability = new DurabilityStage(logExecutor);
         mapper = new ObjectMapper();
+        codec = new MessageCodec(mapper);
+        resultReader = mapper.readerFor(TransactionResult.class);
+        roomsReader = mapper.readerFor(new TypeReference<List<Room>>() {
+        });
+        carsReader = mapper.readerFor(new TypeReference<List<Car>>() {
+        });
+        bookingsReader = mapper.readerFor(new TypeReference<List<Booking>>() {
+        });
+        rentalsReader = mapper.readerFor(new TypeReference<List<Rental>>() {
+        });
         pendingRequests = new ConcurrentHashMap<>();
+        multicastGroup = resolveMulticastGroup(System.getProperty("travelbroker.multicast.group"));
+        multicastPort = Integer.getInteger("travelbroker.multicast.port", 5100);
+        checkpointStore = new CheckpointStore(checkpointDirectory, mapper);
+
+        Integer standbyPort = shipJournal ? Integer.getInteger("travelbroker.standby.port") : null;
+        journalShipper = standbyPort == null ? null : new JournalShipper(
+                new InetSocketAddress(System.getProperty("travelbroker.standby.host", "localhost"), standbyPort),
+                Long.getLong("travelbroker.standby.heartbeatMillis", 50), contexts::values, parked::values, loggedGroups::values);
 
         LOGGER.log(Level.INFO, String.format("Starting TravelBrokerServer on port %s", port));
 
-        // We read all existing logs and store them in our contexts HashMap.
+        // The groups of the recovered transactions, an undecided group is aborted as a whole
+        Map<UUID, BookingGroupRecord> recoveredGroupsByTransaction = new HashMap<>();
+        Collection<BookingGroupRecord> groupRecords = recoveredContexts != null ? recoveredGroups : transactionLog.readGroups();
+        if (groupRecords != null) {
+            groupRecords.forEach(group -> group.getTransactionIds().forEach(id -> recoveredGroupsByTransaction.put(id, group)));
+        }
+        Collection<CoordinatorContext> recovering = recoveredContexts != null ? recoveredContexts : recoverContexts();
+
+        // A group is forgotten once the decisions of its prepared transactions are logged, the others have theirs already
+        Map<UUID, Runnable> recoveredGroupLogged = new HashMap<>();
+        if (groupRecords != null) {
+            for (BookingGroupRecord group : groupRecords) {
+                int prepared = (int) recovering.stream()
+                        .filter(context -> context.getTransactionState() == TransactionState.PREPARE
+                                && group.getTransactionIds().contains(context.getTransactionId()))
+                        .count();
+                if (prepared == 0) {
+                    forgetGroup(group.getGroupId());
+                } else {
+                    recoveredGroupLogged.put(group.getGroupId(), forgetGroupWhenLogged(group.getGroupId(), prepared));
+                }
+            }
+        }
+
+        // We read the last checkpoint and all logs written since and store them in our contexts HashMap.
         // This happens after a crash to recover the state of our server.
-        for (CoordinatorContext context : logWriter.readAllLogs()) {
+        for (CoordinatorContext context : recovering) {
             LOGGER.log(Level.INFO, "Recovered transaction {0}", context.getTransactionId());
             contexts.put(context.getTransactionId(), context);
+            transactionTable.add(context);
 
             switch (context.getTransactionState()) {
                 case PREPARE -> {
                     LOGGER.log(Level.INFO, "Transaction {0} is in the prepare state", context.getTransactionId());
 
-                    // If the transaction is in the prepare state, we send a prepare message to all participants.
-                    if (context.getParticipants().stream().allMatch(p -> p.getVote().equals(Vote.YES))) {
+                    BookingGroupRecord group = recoveredGroupsByTransaction.get(context.getTransactionId());
+                    if (group != null) {
+                        // The transaction follows the logged decision of its group, without one no transaction
+                        // of the group can have been committed, so the group is aborted
+                        LOGGER.log(Level.INFO, "Transaction {0} belongs to group {1}, decision: {2}",
+                                new Object[]{context.getTransactionId(), group.getGroupId(), group.getDecision()});
+                        Runnable groupLogged = recoveredGroupLogged.get(group.getGroupId());
+                        if (Boolean.TRUE.equals(group.getDecision())) {
+                            sendCommit(context.getTransactionId(), groupLogged);
+                        } else {
+                            sendAbort(context.getTransactionId(), groupLogged);
+                        }
+                    } else if (context.getParticipants().stream().allMatch(p -> p.getVote().equals(Vote.YES))) {
                         LOGGER.log(Level.INFO, "All participants voted yes for transaction {0}, committing...", context.getTransactionId());
                         sendCommit(context.getTransactionId());
                     } else {
@@ -97,7 +362,7 @@ public class TravelBrokerServer {
                     if (context.getParticipants().stream().allMatch(Participant::isDone)) {
                         LOGGER.log(Level.INFO, "Transaction {0} is done", context.getTransactionId());
                         contexts.remove(context.getTransactionId());
-                        logWriter.deleteLog(context.getTransactionId());
+                        forget(context.getTransactionId());
                     } else {
                         LOGGER.log(Level.INFO, "Transaction {0} is not done yet", context.getTransactionId());
                         sendAbort(context.getTransactionId());
@@ -109,7 +374,7 @@ public class TravelBrokerServer {
                     if (context.getParticipants().stream().allMatch(Participant::isDone)) {
                         LOGGER.log(Level.INFO, "Transaction {0} is done", context.getTransactionId());
                         contexts.remove(context.getTransactionId());
-                        logWriter.deleteLog(context.getTransactionId());
+                        forget(context.getTransactionId());
                     } else {
                         LOGGER.log(Level.INFO, "Transaction {0} is not done yet", context.getTransactionId());
                         sendCommit(context.getTransactionId());
@@ -118,80 +383,540 @@ public class TravelBrokerServer {
                 default -> {
                     LOGGER.log(Level.WARNING, "Unknown transaction state {0}", context.getTransactionState());
                     contexts.remove(context.getTransactionId());
-                    logWriter.deleteLog(context.getTransactionId());
+                    forget(context.getTransactionId());
                 }
             }
         }
 
         coordinator = new Coordinator(String.format("TravelBroker:%s", port), InetAddress.getLoopbackAddress(), port);
         participants = List.of(new Participant("CarProvider", InetAddress.getLoopbackAddress(), 5001), new Participant("HotelProvider", InetAddress.getLoopbackAddress(), 5002));
+
+        replica = new AvailabilityReplica(participants.stream().map(Participant::getName).toList());
+        subscriptionClient = Boolean.getBoolean("travelbroker.subscriptions") ? new SubscriptionClient(replica, participants) : null;
     }
 
     public CompletableFuture<UDPMessage> sendPacket(InetAddress address, int port, UDPMessage msg) throws IOException {
         CompletableFuture<UDPMessage> future = new CompletableFuture<>();
         pendingRequests.put(msg.getTransactionId(), future);
 
-        String jsonString = mapper.writeValueAsString(msg);
-        byte[] sendBuffer = jsonString.getBytes();
-        DatagramPacket packet = new DatagramPacket(sendBuffer, sendBuffer.length, address, port);
+        MessageCodec.EncodeBuffer buffer = codec.encode(msg);
 
-        LOGGER.log(Level.INFO, "Sending transaction {0} to {1}:{2}: {3}", new Object[]{msg.getTransactionId(), address, port, jsonString});
+        EVENTS.log(Level.FINE, "Sending transaction {0} to {1}:{2}", msg.getTransactionId(), address, port);
+        if (EVENTS.samplePayload()) {
+            EVENTS.log(Level.FINE, "Payload of transaction {0}: {1}", msg.getTransactionId(), buffer.toString(StandardCharsets.UTF_8));
+        }
 
-        socket.send(packet);
+        sendQuery(msg.getOperation(), msg.getTransactionId(), buffer.array(), buffer.size(), address, port);
 
         // Set timeout of 10 seconds
-        future.orTimeout(5, TimeUnit.SECONDS).exceptionally(e -> {
+        scheduler.orTimeout(future, 5, TimeUnit.SECONDS).exceptionally(e -> {
             pendingRequests.remove(msg.getTransactionId());
-            LOGGER.log(Level.WARNING, "Timeout for transaction {0}", msg.getTransactionId());
+            EVENTS.log(Level.WARNING, "Timeout for transaction {0}", msg.getTransactionId());
+            TimeoutEvent.timedOut(msg.getTransactionId(), msg.getOperation(), address, port);
             return null;
         });
 
         return future;
     }
 
+    /**
+     * Sends the query once to the multicast group and returns the future replies of all participants.
+     *
+     * @param msg the query to send
+     * @return the replies, in the order of the participants
+     */
+    private List<CompletableFuture<UDPMessage>> sendMulticast(UDPMessage msg) throws IOException {
+        Map<String, CompletableFuture<UDPMessage>> replies = new HashMap<>();
+        List<CompletableFuture<UDPMessage>> futures = new ArrayList<>();
+        participants.forEach(participant -> {
+            CompletableFuture<UDPMessage> future = new CompletableFuture<>();
+            scheduler.orTimeout(future, 5, TimeUnit.SECONDS);
+            replies.put(participant.getName(), future);
+            futures.add(future);
+        });
+        multicastRequests.put(msg.getTransactionId(), replies);
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).whenComplete((result, e) -> {
+            multicastRequests.remove(msg.getTransactionId());
+            if (e != null) {
+                EVENTS.log(Level.WARNING, "Timeout for transaction {0}", msg.getTransactionId());
+                TimeoutEvent.timedOut(msg.getTransactionId(), msg.getOperation());
+            }
+        });
+
+        MessageCodec.EncodeBuffer buffer = codec.encode(msg);
+        EVENTS.log(Level.FINE, "Sending transaction {0} to multicast group {1}:{2}", msg.getTransactionId(), multicastGroup, multicastPort);
+        sendQuery(msg.getOperation(), msg.getTransactionId(), buffer.array(), buffer.size(), multicastGroup, multicastPort);
+
+        return futures;
+    }
+
+    /**
+     * Decides whether a query is sent to the multicast group, which is not possible for the queries sent over TCP.
+     */
+    private boolean useMulticast(Operation operation) {
+        return multicastGroup != null && !operationTransports.containsKey(operation);
+    }
+
+    /**
+     * Reads the transport of every query from -Dtravelbroker.transport.&lt;OPERATION&gt;, either udp
+     * (the default) or tcp. The queries sent over TCP share one transport.
+     *
+     * @return the transports of the queries that are not sent over UDP
+     */
+    private static Map<Operation, Transport> configureOperationTransports() {
+        Map<Operation, Transport> operationTransports = new EnumMap<>(Operation.class);
+        TcpTransport tcpTransport = null;
+
+        for (Operation operation : Operation.values()) {
+            String name = System.getProperty("travelbroker.transport." + operation.name(), "udp");
+            switch (name) {
+                case "udp" -> {
+                }
+                case "tcp" -> {
+                    if (operation != Operation.GET_AVAILABILITY && operation != Operation.GET_BOOKINGS) {
+                        LOGGER.log(Level.WARNING, "Only queries can be sent over TCP, {0} stays on UDP", operation);
+                        continue;
+                    }
+
+                    if (tcpTransport == null) {
+                        try {
+                            tcpTransport = new TcpTransport(Integer.getInteger("travelbroker.tcp.portOffset", 0),
+                                    Integer.getInteger("travelbroker.tcp.maxFrameBytes", 16 * 1024 * 1024));
+                        } catch (IOException e) {
+                            LOGGER.log(Level.WARNING, "Error creating TCP transport: {0}", e.getMessage());
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    operationTransports.put(operation, tcpTransport);
+                }
+                default -> throw new IllegalArgumentException(String.format("Unknown transport %s for %s", name, operation));
+            }
+        }
+
+        return operationTransports;
+    }
+
+    private static InetAddress resolveMulticastGroup(String group) {
+        if (group == null) {
+            return null;
+        }
+
+        try {
+            InetAddress address = InetAddress.getByName(group);
+            if (!address.isMulticastAddress()) {
+                throw new IllegalArgumentException("Not a multicast address: " + group);
+            }
+            return address;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error resolving multicast group: {0}", e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void send(Operation operation, UUID transactionId, byte[] data, int length, InetAddress address, int port) throws IOException {
+        transport.send(data, length, address, port);
+        MessageEvent.sent(operation, transactionId, length, address, port);
+    }
+
+    private void sendQuery(Operation operation, UUID transactionId, byte[] data, int length, InetAddress address, int port) throws IOException {
+        Transport target = operationTransports.get(operation);
+        if (target == null) {
+            target = queryTransport != null ? queryTransport : transport;
+        }
+        target.send(data, length, address, port);
+        MessageEvent.sent(operation, transactionId, length, address, port);
+    }
+
     public void startReceiving() {
-        Thread thread = new Thread(() -> {
-            while (true) {
-                DatagramPacket packet = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+        startTransport();
+
+        // Seed the booked intervals and the booking history with the bookings the providers already have
+        refreshBookingHistory();
+
+        if (subscriptionClient != null) {
+            subscriptionClient.start();
+        }
+
+        if (journalShipper != null) {
+            journalShipper.start();
+        }
+
+        long checkpointInterval = Long.getLong("travelbroker.checkpoint.intervalSeconds", 60);
+        long parkedRetryInterval = Long.getLong("travelbroker.checkpoint.parkedRetrySeconds", 300);
+        maintenance.scheduleWithFixedDelay(this::checkpoint, checkpointInterval, checkpointInterval, TimeUnit.SECONDS);
+        maintenance.scheduleWithFixedDelay(this::retryParked, parkedRetryInterval, parkedRetryInterval, TimeUnit.SECONDS);
+
+        // The booking history also learns about the bookings that were made without us
+        long historyRefreshInterval = Long.getLong("travelbroker.history.refreshSeconds", 60);
+        maintenance.scheduleWithFixedDelay(this::refreshBookingHistory, historyRefreshInterval, historyRefreshInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Starts receiving messages, without the background tasks of {@link #startReceiving()}.
+     * Our simulations use this to run nothing but the protocol.
+     */
+    public void startTransport() {
+        // The 2PC messages are handled on the receiving thread of the transport, which is preferred over the query lane
+        transport.start(coordinator.getName(), this::receive);
+
+        if (queryTransport != null) {
+            queryTransport.start(coordinator.getName() + "-Queries", this::receive);
+        }
+
+        // The queries share a single TCP transport, whose selector thread receives their replies
+        new HashSet<>(operationTransports.values()).forEach(operationTransport ->
+                operationTransport.start(coordinator.getName() + "-Tcp", this::receive));
+    }
+
+    /**
+     * Reads the open transactions from the last checkpoint and the logs written since.
+     * Parked transactions go straight back to the parked set, unless they have been
+     * logged again after the checkpoint.
+     *
+     * @return the transactions that have to be recovered
+     */
+    private Collection<CoordinatorContext> recoverContexts() {
+        Map<UUID, CoordinatorContext> recovered = new LinkedHashMap<>();
+
+        try {
+            List<CheckpointStore.Entry> entries = checkpointStore.load();
+            for (CheckpointStore.Entry entry : entries) {
+                UUID transactionId = entry.getContext().getTransactionId();
+                if (entry.isParked()) {
+                    parked.put(transactionId, entry.getContext());
+                } else {
+                    recovered.put(transactionId, entry.getContext());
+                }
+                retryCounts.put(transactionId, entry.getRetries());
+            }
+            checkpointed = entries.stream().map(entry -> entry.getContext().getTransactionId()).collect(Collectors.toSet());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error reading checkpoint: {0}", e.getMessage());
+            throw new RuntimeException(e);
+        }
+
+        // The logs are newer than the checkpoint
+        for (CoordinatorContext context : transactionLog.readAll()) {
+            parked.remove(context.getTransactionId());
+            recovered.put(context.getTransactionId(), context);
+        }
+
+        LOGGER.log(Level.INFO, "Recovered {0} parked transactions from the checkpoint", parked.size());
+        return recovered.values();
+    }
+
+    /**
+     * Saves all open and parked transactions in a checkpoint and deletes their logs.
+     */
+    private void checkpoint() {
+        logLock.writeLock().lock();
+        try {
+            List<CheckpointStore.Entry> entries = new ArrayList<>();
+            contexts.forEach((id, context) -> entries.add(new CheckpointStore.Entry(context, retryCounts.getOrDefault(id, 0), false)));
+            parked.forEach((id, context) -> entries.add(new CheckpointStore.Entry(context, retryCounts.getOrDefault(id, 0), true)));
+
+            checkpointStore.write(entries);
+
+            // The checkpoint contains the latest state of these transactions, so their logs are no longer needed
+            Set<UUID> ids = new HashSet<>();
+            entries.forEach(entry -> {
+                UUID transactionId = entry.getContext().getTransactionId();
+                transactionLog.delete(transactionId);
+                ids.add(transactionId);
+            });
+            checkpointed = ids;
+
+            EVENTS.log(Level.INFO, "Checkpointed {0} open and {1} parked transactions", contexts.size(), parked.size());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error writing checkpoint: {0}", e.getMessage());
+        } finally {
+            logLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sends the decision of every parked transaction once more, without waiting for an ACK.
+     */
+    private void retryParked() {
+        parked.forEach((transactionId, context) -> {
+            Operation operation = context.getTransactionState().equals(TransactionState.COMMIT) ? Operation.COMMIT : Operation.ABORT;
+            MessageCodec.EncodeBuffer decision = encode(new UDPMessage(operation, transactionId, "TravelBroker", null));
+            RetransmissionEvent.retransmitted(transactionId, operation, retryCounts.getOrDefault(transactionId, 0), true);
+
+            context.getParticipants().stream().filter(participant -> !participant.isDone()).forEach(participant -> {
                 try {
-                    socket.receive(packet);
+                    send(operation, transactionId, decision.array(), decision.size(), participant.getUrl(), participant.getPort());
                 } catch (IOException e) {
-                    throw new RuntimeException(e);
+                    LOGGER.log(Level.WARNING, "Error sending packet: {0}", e.getMessage());
                 }
+            });
+        });
+    }
 
-                String received = new String(packet.getData(), 0, packet.getLength());
+    /**
+     * Sends the decision of a transaction again after a participant didn't acknowledge
+     * it in time. After too many retries, the transaction is parked.
+     */
+    private void retryDecision(UUID transactionId) {
+        CoordinatorContext context = contexts.get(transactionId);
+        if (context == null) {
+            // The transaction has finished or was parked in the meantime
+            return;
+        }
 
-                // Convert received data to UDPMessage
-                UDPMessage msg;
+        int retries = retryCounts.merge(transactionId, 1, Integer::sum);
+        tracer.instant(transactionId, "retry");
+        RetransmissionEvent.retransmitted(transactionId, context.getTransactionState(), retries, retries > parkAfterRetries);
+        if (retries > parkAfterRetries) {
+            logLock.readLock().lock();
+            try {
+                contexts.remove(transactionId);
+                parked.put(transactionId, context);
+            } finally {
+                logLock.readLock().unlock();
+            }
+            EVENTS.log(Level.WARNING, "Parked transaction {0} after {1} retries", transactionId, retries);
+            tracer.instant(transactionId, "parked");
+            // The standby has to know the transaction is parked, it would otherwise lose it on its next connect
+            persist(context);
+            return;
+        }
+
+        if (context.getTransactionState().equals(TransactionState.COMMIT)) {
+            sendCommit(transactionId);
+        } else {
+            sendAbort(transactionId);
+        }
+    }
+
+    /**
+     * Moves a parked transaction back to the open transactions, since one of its
+     * participants is reachable again.
+     *
+     * @return true if the transaction was parked
+     */
+    private boolean unpark(UUID transactionId) {
+        if (parked.isEmpty()) {
+            return false;
+        }
+
+        CoordinatorContext context;
+        logLock.readLock().lock();
+        try {
+            context = parked.remove(transactionId);
+            if (context == null) {
+                return false;
+            }
+            retryCounts.remove(transactionId);
+            contexts.put(transactionId, context);
+            // The parked transactions of a checkpoint are not in the table yet
+            transactionTable.add(context);
+        } finally {
+            logLock.readLock().unlock();
+        }
+
+        LOGGER.log(Level.INFO, "Resumed parked transaction {0}", transactionId);
+        persist(context);
+        return true;
+    }
+
+    /**
+     * Writes the context to our log and ships it to the standby. The write is
+     * only enqueued on the durability stage, but the context is copied right
+     * away, so the log gets its state as of this call.
+     */
+    private void persist(CoordinatorContext context) {
+        persist(context, null);
+    }
+
+    /**
+     * Writes the context to our log and ships it to the standby.
+     *
+     * @param onDurable runs on the durability stage once the context is written, or null.
+     *                  If the write fails, it is tried again with the same callback.
+     */
+    private void persist(CoordinatorContext context, Runnable onDurable) {
+        UUID transactionId = context.getTransactionId();
+        boolean isParked = parked.containsKey(transactionId);
+
+        // The receiving thread goes on changing the context while the write is queued,
+        // the copy is only serialized once by the log and once more for the standby
+        CoordinatorContext snapshot;
+        synchronized (context) {
+            snapshot = copyContext(context);
+        }
+
+        tracer.begin(transactionId, "log write");
+        durability.submit(transactionId, () -> {
+            LogWriteEvent event = LogWriteEvent.start();
+            logLock.readLock().lock();
+            try {
+                transactionLog.write(snapshot);
+            } finally {
+                logLock.readLock().unlock();
+            }
+            event.end(transactionId, "write");
+            tracer.end(transactionId, "log write");
+            if (journalShipper != null) {
                 try {
-                    msg = mapper.readValue(received, UDPMessage.class);
-                } catch (IOException e) {
+                    journalShipper.shipWrite(transactionId, mapper.writeValueAsString(snapshot), isParked);
+                } catch (JsonProcessingException e) {
+                    LOGGER.log(Level.WARNING, "Error parsing JSON: {0}", e.getMessage());
                     throw new RuntimeException(e);
                 }
+            }
+        }, onDurable, () -> scheduler.schedule(() -> {
+            // The transaction is only written again while it is still ours
+            if (contexts.get(transactionId) == context || parked.get(transactionId) == context) {
+                persist(context, onDurable);
+            }
+        }, LOG_RETRY_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Copies the logged state of a context: its state, the votes and done flags of
+     * its participants and their booking contexts, which are never changed once set.
+     * The futures are not logged, so they are not copied.
+     */
+    private static CoordinatorContext copyContext(CoordinatorContext context) {
+        List<Participant> participants = context.getParticipants().stream().map(participant -> {
+            Participant copy = new Participant(participant.getName(), participant.getUrl(), participant.getPort());
+            copy.setVote(participant.getVote());
+            if (participant.isDone()) {
+                copy.setDone();
+            }
+            copy.setBookingContext(participant.getBookingContext());
+            return copy;
+        }).toList();
 
-                LOGGER.log(Level.INFO, "Received transaction {0} from {1}, {2}", new Object[]{msg.getTransactionId(), msg.getSender(), msg.getOperation()});
+        return new CoordinatorContext(context.getTransactionId(), context.getTransactionState(), context.getCoordinator(), participants);
+    }
 
-                switch (msg.getOperation()) {
-                    case GET_BOOKINGS, GET_AVAILABILITY -> {
-                        if (pendingRequests.containsKey(msg.getTransactionId())) {
-                            pendingRequests.get(msg.getTransactionId()).complete(msg);
-                        } else {
-                            LOGGER.log(Level.WARNING, "Received GET_BOOKINGS or GET_AVAILABILITY without pending request!");
-                        }
-                    }
-                    case PREPARE -> receivePrepare(msg);
-                    case COMMIT -> receiveCommit(msg);
-                    case ABORT -> receiveAbort(msg);
-                    case RESULT -> receiveResult(msg, packet.getAddress(), packet.getPort());
-                    default -> LOGGER.log(Level.WARNING, "Received unknown operation!");
+    /**
+     * Writes a group to our log and ships it to the standby. The group is a barrier
+     * of the durability stage, so it is durable before any record enqueued after it.
+     */
+    private void persistGroup(BookingGroupRecord group) {
+        loggedGroups.put(group.getGroupId(), group);
+        durability.submitBarrier(group.getGroupId(), () -> {
+            logLock.readLock().lock();
+            try {
+                transactionLog.writeGroup(group);
+            } finally {
+                logLock.readLock().unlock();
+            }
+            if (journalShipper != null) {
+                journalShipper.shipGroup(group);
+            }
+        }, null);
+    }
+
+    /**
+     * Returns a callback for the decision logs of the transactions of a group, which
+     * forgets the group once all of them are durable. Until then the group record is
+     * needed to decide the transactions whose decision isn't logged yet.
+     *
+     * @param groupId the id of the group
+     * @param members the number of decisions to wait for
+     */
+    private Runnable forgetGroupWhenLogged(UUID groupId, int members) {
+        AtomicInteger pending = new AtomicInteger(members);
+        return () -> {
+            if (pending.decrementAndGet() == 0) {
+                forgetGroup(groupId);
+            }
+        };
+    }
+
+    private void forgetGroup(UUID groupId) {
+        loggedGroups.remove(groupId);
+        durability.submit(groupId, () -> {
+            logLock.readLock().lock();
+            try {
+                transactionLog.deleteGroup(groupId);
+            } finally {
+                logLock.readLock().unlock();
+            }
+            if (journalShipper != null) {
+                journalShipper.shipGroupDelete(groupId);
+            }
+        }, null);
+    }
+
+    /**
+     * Deletes the log of a finished transaction here and on the standby.
+     */
+    private void forget(UUID transactionId) {
+        retryCounts.remove(transactionId);
+        parked.remove(transactionId);
+        transactionTable.remove(transactionId);
+
+        durability.submit(transactionId, () -> {
+            LogWriteEvent event = LogWriteEvent.start();
+            logLock.readLock().lock();
+            try {
+                transactionLog.delete(transactionId);
+                if (checkpointed.contains(transactionId)) {
+                    // Otherwise the transaction would be recovered from the checkpoint
+                    checkpointStore.markCompleted(transactionId);
                 }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error journaling completed transaction: {0}", e.getMessage());
+            } finally {
+                logLock.readLock().unlock();
+            }
+            event.end(transactionId, "delete");
+            if (journalShipper != null) {
+                journalShipper.shipDelete(transactionId);
             }
-        }, coordinator.getName());
+        }, null);
+    }
+
+    private void receive(byte[] data, int offset, int length, InetAddress address, int port) {
+        // Convert received data to UDPMessage
+        UDPMessage msg;
+        try {
+            msg = codec.decode(data, offset, length);
+        } catch (IOException e) {
+            // A reply that didn't fit into the buffer of the transport arrives truncated. It is dropped,
+            // its request times out, and the 2PC messages on the same thread are still received.
+            LOGGER.log(Level.WARNING, "Dropping undecodable datagram of {0} bytes from {1}:{2}: {3}",
+                    new Object[]{length, address.getHostAddress(), port, e.getMessage()});
+            return;
+        }
 
-        thread.start();
+        EVENTS.log(Level.FINE, "Received transaction {0} from {1}, {2}", msg.getTransactionId(), msg.getSender(), msg.getOperation());
+        MessageEvent.received(msg.getOperation(), msg.getTransactionId(), length, msg.getSender());
+
+        switch (msg.getOperation()) {
+            case GET_BOOKINGS, GET_AVAILABILITY -> queryLane.execute(() -> receiveQueryResponse(msg));
+            case PREPARE -> receivePrepare(msg);
+            case COMMIT -> receiveCommit(msg);
+            case ABORT -> receiveAbort(msg);
+            case RESULT -> receiveResult(msg, address, port);
+            default -> LOGGER.log(Level.WARNING, "Received unknown operation!");
+        }
+    }
+
+    private void receiveQueryResponse(UDPMessage msg) {
+        CompletableFuture<UDPMessage> future = pendingRequests.remove(msg.getTransactionId());
+        if (future == null) {
+            Map<String, CompletableFuture<UDPMessage>> replies = multicastRequests.get(msg.getTransactionId());
+            future = replies != null ? replies.get(msg.getSender()) : null;
+        }
+
+        if (future != null) {
+            // The response is parsed by the stages of the future, which run on the query lane
+            future.complete(msg);
+        } else {
+            EVENTS.log(Level.WARNING, "Received GET_BOOKINGS or GET_AVAILABILITY without pending request!");
+        }
     }
 
     private void receiveResult(UDPMessage msg, InetAddress address, int port) {
+        // A participant asking for the result is reachable again
+        unpark(msg.getTransactionId());
         CoordinatorContext context = contexts.get(msg.getTransactionId());
         UDPMessage response;
 
@@ -228,7 +953,7 @@ public class TravelBrokerServer {
                 default -> {
                     LOGGER.log(Level.WARNING, "Unknown transaction state {0}", context.getTransactionState());
                     contexts.remove(context.getTransactionId());
-                    logWriter.deleteLog(context.getTransactionId());
+                    forget(context.getTransactionId());
                     // This is an unknown transaction state, this should not happen
                     // We handle this by sending an abort to the participant
                     // This way we prevent unwanted side effects
@@ -242,10 +967,8 @@ public class TravelBrokerServer {
             // Since we handle this in the underlying methods
             // Otherwise send it back to the address and port we received it from
             try {
-                String messageJsonString = mapper.writeValueAsString(response);
-                byte[] sendBuffer = messageJsonString.getBytes();
-                DatagramPacket packet = new DatagramPacket(sendBuffer, sendBuffer.length, address, port);
-                socket.send(packet);
+                MessageCodec.EncodeBuffer buffer = codec.encode(response);
+                send(response.getOperation(), response.getTransactionId(), buffer.array(), buffer.size(), address, port);
             } catch (IOException e) {
                 LOGGER.log(Level.WARNING, "Error sending UDP packet: {0}", e.getMessage());
             }
@@ -253,6 +976,13 @@ public class TravelBrokerServer {
     }
 
     public CompletableFuture<Map<String, List<Object>>> getAvailability(AvailabilityRequest availabilityRequest) {
+        // If we have an up-to-date copy of all providers, we don't need to ask them
+        if (replica.isSynced()) {
+            QueryDecisionEvent.decided("GET_AVAILABILITY", "replica");
+            return CompletableFuture.completedFuture(replica.getAvailability(LocalDate.parse(availabilityRequest.getStartDate()),
+                    LocalDate.parse(availabilityRequest.getEndDate()), availabilityRequest.getCapacity()));
+        }
+
         List<CompletableFuture<UDPMessage>> futures = new ArrayList<>();
         String availabilityJsonString = "";
 
@@ -264,53 +994,326 @@ public class TravelBrokerServer {
         }
 
         String finalAvailabilityJsonString = availabilityJsonString;
-        participants.forEach(participant -> {
-            // Send a GET_AVAILABILITY request to each participant
-            UDPMessage message = new UDPMessage(Operation.GET_AVAILABILITY, UUID.randomUUID(), "TravelBroker", finalAvailabilityJsonString);
-
+        boolean multicast = useMulticast(Operation.GET_AVAILABILITY);
+        QueryDecisionEvent.decided("GET_AVAILABILITY", multicast ? "providers via multicast" : "providers");
+        if (multicast) {
+            // Send a single GET_AVAILABILITY request to all participants
             try {
-                // Add future to list
-                futures.add(sendPacket(participant.getUrl(), participant.getPort(), message));
+                futures.addAll(sendMulticast(new UDPMessage(Operation.GET_AVAILABILITY, UUID.randomUUID(), QUERY_SENDER, finalAvailabilityJsonString)));
             } catch (IOException e) {
                 LOGGER.log(Level.WARNING, "Error sending UDP packet: {0}", e.getMessage());
                 throw new RuntimeException(e);
             }
-        });
+        } else {
+            participants.forEach(participant -> {
+                // Send a GET_AVAILABILITY request to each participant
+                UDPMessage message = new UDPMessage(Operation.GET_AVAILABILITY, UUID.randomUUID(), QUERY_SENDER, finalAvailabilityJsonString);
+
+                try {
+                    // Add future to list
+                    futures.add(sendPacket(participant.getUrl(), participant.getPort(), message));
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Error sending UDP packet: {0}", e.getMessage());
+                    throw new RuntimeException(e);
+                }
+            });
+        }
 
         // Wait for all futures to complete and return resulting future
-        LOGGER.log(Level.INFO, "Waiting for all GET_AVAILABILITY requests to complete...");
+        EVENTS.log(Level.FINE, "Waiting for all GET_AVAILABILITY requests to complete...");
         return getMapCompletableFuture(futures, true);
     }
 
     public CompletableFuture<Map<String, List<Object>>> getBookings() {
+        // The commits after this point may not be part of the reply
+        long requestedAt = System.currentTimeMillis();
         List<CompletableFuture<UDPMessage>> futures = new ArrayList<>();
+        boolean multicast = useMulticast(Operation.GET_BOOKINGS);
+        QueryDecisionEvent.decided("GET_BOOKINGS", multicast ? "providers via multicast" : "providers");
 
-        participants.forEach(participant -> {
-            // Send a GET_BOOKINGS request to each participant
-            UDPMessage message = new UDPMessage(Operation.GET_BOOKINGS, UUID.randomUUID(), "TravelBroker", null);
-
+        if (multicast) {
+            // Send a single GET_BOOKINGS request to all participants
             try {
-                // Add future to list
-                futures.add(sendPacket(participant.getUrl(), participant.getPort(), message));
+                futures.addAll(sendMulticast(new UDPMessage(Operation.GET_BOOKINGS, UUID.randomUUID(), QUERY_SENDER, null)));
             } catch (IOException e) {
                 LOGGER.log(Level.WARNING, "Error sending UDP packet: {0}", e.getMessage());
                 throw new RuntimeException(e);
             }
-        });
+        } else {
+            participants.forEach(participant -> {
+                // Send a GET_BOOKINGS request to each participant
+                UDPMessage message = new UDPMessage(Operation.GET_BOOKINGS, UUID.randomUUID(), QUERY_SENDER, null);
+
+                try {
+                    // Add future to list
+                    futures.add(sendPacket(participant.getUrl(), participant.getPort(), message));
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Error sending UDP packet: {0}", e.getMessage());
+                    throw new RuntimeException(e);
+                }
+            });
+        }
 
         // Wait for all futures to complete and return resulting future
-        return getMapCompletableFuture(futures, false);
+        return getMapCompletableFuture(futures, false).thenApply(resultMap -> {
+            updateBookingHistory(resultMap, requestedAt);
+            return resultMap;
+        });
+    }
+
+    private void updateBookingHistory(Map<String, List<Object>> resultMap, long requestedAt) {
+        // Only the providers that replied are refreshed, the others keep their records
+        if (resultMap.containsKey("HotelProvider")) {
+            List<BookingRecord> rooms = resultMap.get("HotelProvider").stream().map(entry -> {
+                Booking booking = (Booking) entry;
+                return new BookingRecord(BookingRecord.Type.ROOM, booking.getId(), booking.getRoomId(),
+                        ModelValues.toLocalDate(booking.getStartDate()), ModelValues.toLocalDate(booking.getEndDate()),
+                        booking.getTotalPrice(), 0);
+            }).toList();
+            bookingHistory.refresh(BookingRecord.Type.ROOM, rooms, requestedAt);
+        }
+
+        if (resultMap.containsKey("CarProvider")) {
+            List<BookingRecord> cars = resultMap.get("CarProvider").stream().map(entry -> {
+                Rental rental = (Rental) entry;
+                return new BookingRecord(BookingRecord.Type.CAR, rental.getId(), rental.getCar_id(),
+                        ModelValues.toLocalDate(rental.getStart_date()), ModelValues.toLocalDate(rental.getEnd_date()),
+                        rental.getTotal_price(), 0);
+            }).toList();
+            bookingHistory.refresh(BookingRecord.Type.CAR, cars, requestedAt);
+        }
+
+        // The history still holds our recent commits, so the booked intervals are rebuilt from it
+        bookedIntervals.replaceAll(bookingHistory.all());
+    }
+
+    private void refreshBookingHistory() {
+        getBookings().thenAccept(resultMap -> LOGGER.log(Level.FINE, "Refreshed booking history, {0} records", bookingHistory.size()))
+                .exceptionally(e -> {
+                    LOGGER.log(Level.WARNING, "Could not refresh booking history: {0}", e.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Searches the booking history without contacting the providers.
+     *
+     * @param query the conditions of the bookings, see {@link BookingQuery#parse(String)}
+     * @return the matching bookings and rentals
+     */
+    public List<BookingRecord> findBookings(BookingQuery query) {
+        return bookingHistory.find(query);
+    }
+
+    /**
+     * Sums up the revenue per night of the bookings in the booking history.
+     *
+     * @param query the conditions of the bookings, see {@link BookingQuery#parse(String)}
+     * @return the revenue by night
+     */
+    public SortedMap<LocalDate, Double> getRevenuePerDay(BookingQuery query) {
+        return bookingHistory.revenuePerDay(query);
+    }
+
+    public CompletableFuture<List<TravelPackage>> getPackages(String startDate, String endDate, int capacity, int limit) {
+        AvailabilityRequest availabilityRequest = new AvailabilityRequest(startDate, endDate, capacity);
+        long nights = ChronoUnit.DAYS.between(LocalDate.parse(startDate), LocalDate.parse(endDate));
+
+        // Combine the availability of both providers off the receiving thread
+        return getAvailability(availabilityRequest).thenApplyAsync(resultMap -> {
+            if (resultMap.get("HotelProvider") == null || resultMap.get("CarProvider") == null) {
+                // A provider didn't answer in time, without its offers there is no package
+                LOGGER.log(Level.WARNING, "No availability of both providers from {0} to {1}", new Object[]{startDate, endDate});
+                return List.of();
+            }
+
+            List<Room> rooms = resultMap.get("HotelProvider").stream().map(room -> (Room) room).toList();
+            List<Car> cars = resultMap.get("CarProvider").stream().map(car -> (Car) car).toList();
+
+            return recommender.recommend(rooms, cars, capacity, nights, limit);
+        });
+    }
+
+    /**
+     * Finds the cheapest packages for a stay of the given length that lies anywhere
+     * within the date range. The availability of all date windows is requested at
+     * once, or read from the replica if it is in sync, so the search takes a single
+     * round trip. The windows are then ranked in parallel.
+     *
+     * @param earliestStart the first possible day of arrival
+     * @param latestEnd     the last possible day of departure
+     * @param nights        the number of nights of the stay
+     * @param capacity      the number of persons
+     * @param limit         the maximum number of packages
+     * @return the packages of all windows, ordered by their total price
+     */
+    public CompletableFuture<List<DatedTravelPackage>> getFlexiblePackages(String earliestStart, String latestEnd, int nights, int capacity, int limit) {
+        LocalDate firstStart = LocalDate.parse(earliestStart);
+        LocalDate lastStart = LocalDate.parse(latestEnd).minusDays(nights);
+        if (lastStart.isBefore(firstStart)) {
+            // The stay doesn't fit into the range
+            return CompletableFuture.completedFuture(List.of());
+        }
+
+        List<LocalDate> starts = firstStart.datesUntil(lastStart.plusDays(1)).toList();
+
+        if (starts.size() > MAX_FLEXIBLE_WINDOWS) {
+            // Like every other failure of the search, this is reported through the future
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                    String.format("Too many date windows: %d, at most %d are searched", starts.size(), MAX_FLEXIBLE_WINDOWS)));
+        }
+
+        // Send the requests for all windows before waiting for any of them
+        List<CompletableFuture<Map<String, List<Object>>>> windows = starts.stream()
+                .map(start -> getAvailability(new AvailabilityRequest(start.toString(), start.plusDays(nights).toString(), capacity)))
+                .toList();
+
+        return CompletableFuture.allOf(windows.toArray(new CompletableFuture<?>[0])).thenApplyAsync(ignored ->
+                // Every window keeps its cheapest packages, so the overall cheapest ones are among them
+                IntStream.range(0, starts.size()).parallel()
+                        .mapToObj(i -> recommendWindow(windows.get(i).join(), starts.get(i), nights, capacity, limit))
+                        .flatMap(List::stream)
+                        .sorted(Comparator.comparingDouble(TravelPackage::getTotalPrice))
+                        .limit(limit)
+                        .toList());
+    }
+
+    private List<DatedTravelPackage> recommendWindow(Map<String, List<Object>> resultMap, LocalDate start, int nights, int capacity, int limit) {
+        if (resultMap.get("HotelProvider") == null || resultMap.get("CarProvider") == null) {
+            // A provider didn't answer in time
+            throw new IllegalStateException(String.format("No availability for the window starting %s", start));
+        }
+
+        List<Room> rooms = resultMap.get("HotelProvider").stream().map(room -> (Room) room).toList();
+        List<Car> cars = resultMap.get("CarProvider").stream().map(car -> (Car) car).toList();
+
+        return recommender.recommend(rooms, cars, capacity, nights, limit).stream()
+                .map(travelPackage -> new DatedTravelPackage(travelPackage.getRoom(), travelPackage.getCar(),
+                        travelPackage.getTotalPrice(), start, start.plusDays(nights)))
+                .toList();
     }
 
     public CompletableFuture<Boolean> book(ReservationRequest reservationRequest, UUID roomId, UUID carId) {
+        // Reject the request right away if the room or car is known to be booked for these dates
+        if (isKnownConflict(reservationRequest, roomId, carId)) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        CoordinatorContext context = createContext(reservationRequest, roomId, carId);
+        UUID transactionId = context.getTransactionId();
+
+        // Write the context to the log, this is to ensure that the context is not lost in case of a crash
+        // The PREPAREs don't wait for the write, a participant asking about a transaction we don't know is told to abort
+        persist(context);
+        contexts.put(transactionId, context);
+        transactionTable.add(context);
+
+        if (multicastGroup != null) {
+            // A single PREPARE reaches all participants
+            sendPrepare(encodePrepare(context, allNegotiated()), context);
+            return context.getSuccess();
+        }
+
+        // Send a PREPARE request to each participant, the message is encoded once for all participants
+        // that read compressed data and once for the ones that don't
+        byte[] prepare = encodePrepare(context, false);
+        byte[] compressedPrepare = participants.stream().anyMatch(p -> compression.isNegotiated(p.getName())) ? encodePrepare(context, true) : prepare;
+        context.getParticipants().forEach(participant -> sendPrepare(compression.isNegotiated(participant.getName()) ? compressedPrepare : prepare, transactionId, participant));
+
+        return context.getSuccess();
+    }
+
+    /**
+     * Books many itineraries at once. All transactions are started before any vote
+     * is awaited, their logs are written in one pass and the PREPAREs are sent in
+     * one run per participant.
+     *
+     * @param itineraries  the itineraries to book
+     * @param allOrNothing if true, the itineraries are only committed if all of them can be booked
+     * @return the result of each itinerary, in the order of the itineraries
+     */
+    public List<CompletableFuture<Boolean>> bookAll(List<Itinerary> itineraries, boolean allOrNothing) {
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        List<CoordinatorContext> batch = new ArrayList<>();
+
+        for (Itinerary itinerary : itineraries) {
+            if (isKnownConflict(itinerary.getReservationRequest(), itinerary.getRoomId(), itinerary.getCarId())) {
+                results.add(CompletableFuture.completedFuture(false));
+                continue;
+            }
+
+            CoordinatorContext context = createContext(itinerary.getReservationRequest(), itinerary.getRoomId(), itinerary.getCarId());
+            batch.add(context);
+            results.add(context.getSuccess());
+        }
+
+        if (allOrNothing && batch.size() < itineraries.size()) {
+            // At least one itinerary can't be booked, so we don't start any transaction
+            LOGGER.log(Level.INFO, "Rejecting batch of {0} itineraries without PREPARE", itineraries.size());
+            batch.forEach(context -> context.getSuccess().complete(false));
+            return results;
+        }
+
+        if (allOrNothing) {
+            // The transactions of the group are only decided once all of them have been voted on
+            BookingGroup group = new BookingGroup(UUID.randomUUID(), batch.stream().map(CoordinatorContext::getTransactionId).toList());
+            batch.forEach(context -> groups.put(context.getTransactionId(), group));
+            persistGroup(new BookingGroupRecord(group.getGroupId(), group.getTransactionIds(), null));
+        }
+
+        // Enqueue the logs of all transactions before sending the first PREPARE
+        batch.forEach(context -> {
+            persist(context);
+            contexts.put(context.getTransactionId(), context);
+            transactionTable.add(context);
+        });
+
+        if (multicastGroup != null) {
+            // A single PREPARE per transaction reaches all participants
+            boolean compressed = allNegotiated();
+            batch.forEach(context -> sendPrepare(encodePrepare(context, compressed), context));
+            return results;
+        }
+
+        // Send the PREPAREs for all transactions to one participant after the other,
+        // each PREPARE is encoded once and reused for every participant
+        List<byte[]> prepares = batch.stream().map(context -> encodePrepare(context, false)).toList();
+        List<byte[]> compressedPrepares = participants.stream().anyMatch(p -> compression.isNegotiated(p.getName()))
+                ? batch.stream().map(context -> encodePrepare(context, true)).toList() : prepares;
+        for (int i = 0; i < participants.size(); i++) {
+            List<byte[]> participantPrepares = compression.isNegotiated(participants.get(i).getName()) ? compressedPrepares : prepares;
+            for (int j = 0; j < batch.size(); j++) {
+                CoordinatorContext context = batch.get(j);
+                sendPrepare(participantPrepares.get(j), context.getTransactionId(), context.getParticipants().get(i));
+            }
+        }
+
+        return results;
+    }
+
+    private boolean isKnownConflict(ReservationRequest reservationRequest, UUID roomId, UUID carId) {
+        LocalDate startDate = LocalDate.parse(reservationRequest.getStartDate());
+        LocalDate endDate = LocalDate.parse(reservationRequest.getEndDate());
+
+        if (bookedIntervals.conflicts(roomId, startDate, endDate) || bookedIntervals.conflicts(carId, startDate, endDate)) {
+            LOGGER.log(Level.INFO, "Room {0} or car {1} is already booked, rejecting without PREPARE", new Object[]{roomId, carId});
+            QueryDecisionEvent.decided("BOOK", "known conflict");
+            return true;
+        }
+        return false;
+    }
+
+    private CoordinatorContext createContext(ReservationRequest reservationRequest, UUID roomId, UUID carId) {
         // Generate a new transaction id for the 2PC
         UUID transactionId = UUID.randomUUID();
+        tracer.begin(transactionId, "book");
 
         // Clone the value of the participants, not the reference
         List<Participant> contextParticipants = participants.stream().map(participant -> new Participant(participant.getName(), participant.getUrl(), participant.getPort())).toList();
 
         // Create a new context for the 2PC
         CoordinatorContext context = new CoordinatorContext(transactionId, TransactionState.PREPARE, coordinator, contextParticipants);
+        PhaseEvent.transition(transactionId, "NEW", TransactionState.PREPARE, contextParticipants.size());
 
         context.getParticipants().forEach(participant -> {
             // Create a new participant with the respective booking context for each participant
@@ -320,10 +1323,13 @@ public class TravelBrokerServer {
 
             participant.setBookingContext(bookingContext);
             CompletableFuture<Boolean> prepareFuture = new CompletableFuture<>();
-            prepareFuture.orTimeout(10, TimeUnit.SECONDS).exceptionally(e -> {
-                LOGGER.log(Level.WARNING, String.format("Prepare timeout for %s and transaction %s", participant.getName(), transactionId));
+            scheduler.orTimeout(prepareFuture, 10, TimeUnit.SECONDS).exceptionally(e -> {
+                EVENTS.log(Level.WARNING, "Prepare timeout for {0} and transaction {1}", participant.getName(), transactionId);
+                TimeoutEvent.timedOut(transactionId, "vote", participant.getName());
+                tracer.end(transactionId, "vote", participant.getName());
+                tracer.instant(transactionId, "vote timeout", participant.getName());
                 // Since this is a timeout, we need to abort the transaction
-                sendAbort(transactionId);
+                decide(transactionId, false);
                 return false;
             });
             participant.setPrepareFuture(prepareFuture);
@@ -332,145 +1338,308 @@ public class TravelBrokerServer {
         // Add a future to the context of the 2PC which will be completed when the 2PC is finished
         // With this we can inform the client about the result of the 2PC
         CompletableFuture<Boolean> future = new CompletableFuture<>();
+        future.whenComplete((success, e) -> tracer.end(transactionId, "book"));
         context.setSuccess(future);
 
-        // Write the context to the log, this is to ensure that the context is not lost in case of a crash
-        logWriter.writeLog(transactionId, context);
-        contexts.put(transactionId, context);
+        return context;
+    }
 
-        context.getParticipants().forEach(participant -> {
-            // Send a PREPARE request to each participant
-            LOGGER.log(Level.INFO, "Sending PREPARE to {0}", participant.getName());
+    private byte[] encodePrepare(CoordinatorContext context, boolean compressed) {
+        try {
+            String contextJsonString = mapper.writeValueAsString(context);
+            if (compressed) {
+                contextJsonString = compression.compress(contextJsonString);
+            }
+            UDPMessage message = new UDPMessage(Operation.PREPARE, context.getTransactionId(), "TravelBroker", contextJsonString);
+            return codec.encodeToArray(message);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error parsing JSON: {0}", e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
 
-            try {
-                String contextJsonString = mapper.writeValueAsString(context);
-                UDPMessage message = new UDPMessage(Operation.PREPARE, transactionId, "TravelBroker", contextJsonString);
-
-                String messageJsonString = mapper.writeValueAsString(message);
-                byte[] sendBuffer = messageJsonString.getBytes();
-                DatagramPacket packet = new DatagramPacket(sendBuffer, sendBuffer.length, participant.getUrl(), participant.getPort());
-                socket.send(packet);
-            } catch (JsonProcessingException e) {
-                LOGGER.log(Level.WARNING, "Error parsing JSON: {0}", e.getMessage());
-                throw new RuntimeException(e);
-            } catch (IOException e) {
-                LOGGER.log(Level.WARNING, "Error sending packet: {0}", e.getMessage());
-                throw new RuntimeException(e);
+    private MessageCodec.EncodeBuffer encode(UDPMessage message) {
+        try {
+            return codec.encode(message);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error parsing JSON: {0}", e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void sendPrepare(byte[] prepare, UUID transactionId, Participant participant) {
+        EVENTS.log(Level.FINE, "Sending PREPARE for transaction {0} to {1}", transactionId, participant.getName());
+        tracer.begin(transactionId, "vote", participant.getName());
+
+        try {
+            send(Operation.PREPARE, transactionId, prepare, prepare.length, participant.getUrl(), participant.getPort());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error sending packet: {0}", e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sends the PREPARE to the multicast group.
+     */
+    private void sendPrepare(byte[] prepare, CoordinatorContext context) {
+        EVENTS.log(Level.FINE, "Sending PREPARE for transaction {0} to multicast group", context.getTransactionId());
+        context.getParticipants().forEach(participant -> tracer.begin(context.getTransactionId(), "vote", participant.getName()));
+
+        try {
+            send(Operation.PREPARE, context.getTransactionId(), prepare, prepare.length, multicastGroup, multicastPort);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error sending packet: {0}", e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks whether a message sent to the multicast group may be compressed.
+     */
+    private boolean allNegotiated() {
+        return participants.stream().allMatch(p -> compression.isNegotiated(p.getName()));
+    }
+
+    /**
+     * Decides whether a decision is sent to the multicast group. Single participants
+     * that haven't acknowledged the decision yet are retried via unicast.
+     */
+    private boolean multicastDecision(CoordinatorContext context) {
+        return multicastGroup != null && transactionTable.pendingAcks(context.getTransactionId()) > 1;
+    }
+
+    private void sendDecision(Operation operation, UUID transactionId, MessageCodec.EncodeBuffer decision) {
+        try {
+            send(operation, transactionId, decision.array(), decision.size(), multicastGroup, multicastPort);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error sending packet: {0}", e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Decides the outcome of a transaction once all votes are in or a vote timed out.
+     * Transactions of an all-or-nothing group wait until the whole group is decided.
+     *
+     * @param transactionId the id of the transaction
+     * @param commit        true if all participants voted YES
+     */
+    private void decide(UUID transactionId, boolean commit) {
+        CoordinatorContext context = contexts.get(transactionId);
+
+        if (context == null || !context.getTransactionState().equals(TransactionState.PREPARE)) {
+            // The transaction has already been decided, e.g. because its group was aborted
+            return;
+        }
+        tracer.instant(transactionId, commit ? "votes COMMIT" : "votes ABORT");
+
+        BookingGroup group = groups.get(transactionId);
+        if (group == null) {
+            if (commit) {
+                sendCommit(transactionId);
+            } else {
+                sendAbort(transactionId);
             }
-        });
+            return;
+        }
 
-        return context.getSuccess();
+        Boolean decision = group.vote(transactionId, commit);
+        if (decision == null) {
+            // Persist the votes while we wait for the rest of the group
+            persist(context);
+            return;
+        }
+
+        EVENTS.log(Level.INFO, "Group of transaction {0} is decided, commit: {1}", transactionId, decision);
+        // The decision of the group is a barrier, it is durable before the decision of any of its transactions
+        persistGroup(new BookingGroupRecord(group.getGroupId(), group.getTransactionIds(), decision));
+        Runnable memberLogged = forgetGroupWhenLogged(group.getGroupId(), group.getTransactionIds().size());
+        group.getTransactionIds().forEach(id -> {
+            groups.remove(id);
+            if (decision) {
+                sendCommit(id, memberLogged);
+            } else {
+                sendAbort(id, memberLogged);
+            }
+        });
     }
 
     public void sendAbort(UUID transactionId) {
+        sendAbort(transactionId, null);
+    }
+
+    /**
+     * @param onLogged runs once the ABORT is durable, before it is sent, or null
+     */
+    private void sendAbort(UUID transactionId, Runnable onLogged) {
         // Get the existing context for the transaction
         CoordinatorContext context = contexts.get(transactionId);
 
         // Check if the transaction is already finished, this happens when
         // we crash after the transaction is finished but before we can remove the context
         // To prevent a null pointer exception, we don't call the completable future, since
-        // it does not get persisted in our log file
-        if (!context.getTransactionState().equals(TransactionState.ABORT)) {
-            // Complete the future with false to let our client know that the transaction failed
-            // We can do this here because we know that the transaction failed
-            // If the decision was ABORT, we would have to wait for the ACKs from the participants
-            context.getSuccess().complete(false);
-        }
+        // it does not get persisted in our log file. The same applies to recovered transactions.
+        TransactionState previous = context.getTransactionState();
+        boolean notifyClient = !previous.equals(TransactionState.ABORT) && context.getSuccess() != null;
 
         // Set the transaction state to ABORT
         context.setTransactionState(TransactionState.ABORT);
+        transactionTable.setState(transactionId, TransactionState.ABORT);
+        if (!previous.equals(TransactionState.ABORT)) {
+            PhaseEvent.transition(transactionId, previous, TransactionState.ABORT, context.getParticipants().size());
+        }
 
-        // Write the log entry for the ABORT
-        logWriter.writeLog(transactionId, context);
+        // Write the log entry for the ABORT, the ABORT is only sent once the entry is durable
+        persist(context, () -> {
+            if (onLogged != null) {
+                onLogged.run();
+            }
 
-        context.getParticipants().forEach(participant -> {
-            if (participant.isDone()) {
-                // This participant has already responded with an ACK
-                // So he's not affected by the timeout that caused
-                // this method iteration
-                LOGGER.log(Level.INFO, "Skipping {0} because he's already done", participant.getName());
-                return;
-            }
-
-            // Send an ABORT request to each participant
-            LOGGER.log(Level.INFO, "Sending ABORT to {0}", participant.getName());
-
-            // Set the commitFuture which will time out if the participant doesn't respond in time
-            // We would then continue to resend our decision until we get an ACK
-            participant.resetCommitFuture();
-            CompletableFuture<Boolean> commitFuture = participant.getCommitFuture();
-            commitFuture.orTimeout(10, TimeUnit.SECONDS).exceptionally(e -> {
-                LOGGER.log(Level.WARNING, String.format("Abort timeout for %s with transaction %s", participant.getName(), transactionId));
-                // Resend the COMMIT
-                sendAbort(transactionId);
-                return null;
-            });
+            if (notifyClient) {
+                // Complete the future with false to let our client know that the transaction failed
+                // We can do this here because we know that the transaction failed
+                // If the decision was ABORT, we would have to wait for the ACKs from the participants
+                context.getSuccess().complete(false);
+            }
 
-            try {
-                UDPMessage message = new UDPMessage(Operation.ABORT, transactionId, "TravelBroker", null);
-
-                String messageJsonString = mapper.writeValueAsString(message);
-                byte[] sendBuffer = messageJsonString.getBytes();
-                DatagramPacket packet = new DatagramPacket(sendBuffer, sendBuffer.length, participant.getUrl(), participant.getPort());
-                socket.send(packet);
-            } catch (JsonProcessingException e) {
-                LOGGER.log(Level.WARNING, "Error parsing JSON: {0}", e.getMessage());
-                throw new RuntimeException(e);
-            } catch (IOException e) {
-                LOGGER.log(Level.WARNING, "Error sending packet: {0}", e.getMessage());
-                throw new RuntimeException(e);
+            // The ABORT is the same for every participant, so it is only encoded once
+            MessageCodec.EncodeBuffer decision = encode(new UDPMessage(Operation.ABORT, transactionId, "TravelBroker", null));
+
+            // This runs on the durability stage, while the ACKs update the same participants on the
+            // receiving thread, so the participants are only changed while holding the context
+            synchronized (context) {
+                boolean multicast = multicastDecision(context);
+
+                context.getParticipants().forEach(participant -> {
+                    if (participant.isDone()) {
+                        // This participant has already responded with an ACK
+                        // So he's not affected by the timeout that caused
+                        // this method iteration
+                        EVENTS.log(Level.FINE, "Skipping {0} because he's already done", participant.getName());
+                        return;
+                    }
+
+                    // Send an ABORT request to each participant
+                    EVENTS.log(Level.FINE, "Sending ABORT for transaction {0} to {1}", transactionId, participant.getName());
+                    tracer.instant(transactionId, "ABORT to", participant.getName());
+
+                    // Set the commitFuture which will time out if the participant doesn't respond in time
+                    // We would then continue to resend our decision until we get an ACK
+                    // The timeout of the previous attempt is cancelled, so every attempt schedules one retry
+                    if (participant.getCommitFuture() != null) {
+                        participant.getCommitFuture().complete(false);
+                    }
+                    participant.resetCommitFuture();
+                    CompletableFuture<Boolean> commitFuture = participant.getCommitFuture();
+                    scheduler.orTimeout(commitFuture, 10, TimeUnit.SECONDS).exceptionally(e -> {
+                        EVENTS.log(Level.WARNING, "Abort timeout for {0} with transaction {1}", participant.getName(), transactionId);
+                        TimeoutEvent.timedOut(transactionId, "ACK of ABORT", participant.getName());
+                        // Resend the ABORT
+                        retryDecision(transactionId);
+                        return null;
+                    });
+
+                    if (multicast) {
+                        // The decision is sent to all participants at once after the loop
+                        return;
+                    }
+
+                    try {
+                        send(Operation.ABORT, transactionId, decision.array(), decision.size(), participant.getUrl(), participant.getPort());
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Error sending packet: {0}", e.getMessage());
+                        throw new RuntimeException(e);
+                    }
+                });
+
+                if (multicast) {
+                    sendDecision(Operation.ABORT, transactionId, decision);
+                }
             }
         });
     }
 
     private void sendCommit(UUID transactionId) {
+        sendCommit(transactionId, null);
+    }
+
+    /**
+     * @param onLogged runs once the COMMIT is durable, before it is sent, or null
+     */
+    private void sendCommit(UUID transactionId, Runnable onLogged) {
         // Get the existing context for the transaction
         CoordinatorContext context = contexts.get(transactionId);
 
         // Set the transaction state to COMMIT
+        TransactionState previous = context.getTransactionState();
         context.setTransactionState(TransactionState.COMMIT);
+        transactionTable.setState(transactionId, TransactionState.COMMIT);
+        if (!previous.equals(TransactionState.COMMIT)) {
+            PhaseEvent.transition(transactionId, previous, TransactionState.COMMIT, context.getParticipants().size());
+        }
 
         // In this case we can't complete the future with true because we don't know when the
         // transaction will succeed or not. We have to wait for the ACKs from the participants
 
-        // Write the log entry for the COMMIT
-        logWriter.writeLog(transactionId, context);
+        // Write the log entry for the COMMIT, the COMMIT is only sent once the entry is durable
+        persist(context, () -> {
+            if (onLogged != null) {
+                onLogged.run();
+            }
+
+            // The COMMIT is the same for every participant, so it is only encoded once
+            MessageCodec.EncodeBuffer decision = encode(new UDPMessage(Operation.COMMIT, transactionId, "TravelBroker", null));
 
-        context.getParticipants().forEach(participant -> {
-            if (participant.isDone()) {
-                // This participant has already responded with an ACK
-                // So he's not affected by the timeout that caused
-                // this method iteration
-                return;
-            }
-
-            // Send a COMMIT request to each participant
-            LOGGER.log(Level.INFO, "Sending COMMIT to {0}", participant.getName());
-
-            // Set the commitFuture which will time out if the participant doesn't respond in time
-            // We would then continue to resend our decision until we get an ACK
-            participant.resetCommitFuture();
-            CompletableFuture<Boolean> commitFuture = participant.getCommitFuture();
-            commitFuture.orTimeout(10, TimeUnit.SECONDS).exceptionally(e -> {
-                LOGGER.log(Level.WARNING, String.format("Commit timeout for %s with transaction %s", participant.getName(), transactionId));
-                // Resend the COMMIT
-                sendCommit(transactionId);
-                return true;
-            });
+            // This runs on the durability stage, while the ACKs update the same participants on the
+            // receiving thread, so the participants are only changed while holding the context
+            synchronized (context) {
+                boolean multicast = multicastDecision(context);
 
-            try {
-                UDPMessage message = new UDPMessage(Operation.COMMIT, transactionId, "TravelBroker", null);
-
-                String messageJsonString = mapper.writeValueAsString(message);
-                byte[] sendBuffer = messageJsonString.getBytes();
-                DatagramPacket packet = new DatagramPacket(sendBuffer, sendBuffer.length, participant.getUrl(), participant.getPort());
-                socket.send(packet);
-            } catch (JsonProcessingException e) {
-                LOGGER.log(Level.WARNING, "Error parsing JSON: {0}", e.getMessage());
-                throw new RuntimeException(e);
-            } catch (IOException e) {
-                LOGGER.log(Level.WARNING, "Error sending packet: {0}", e.getMessage());
-                throw new RuntimeException(e);
+                context.getParticipants().forEach(participant -> {
+                    if (participant.isDone()) {
+                        // This participant has already responded with an ACK
+                        // So he's not affected by the timeout that caused
+                        // this method iteration
+                        return;
+                    }
+
+                    // Send a COMMIT request to each participant
+                    EVENTS.log(Level.FINE, "Sending COMMIT for transaction {0} to {1}", transactionId, participant.getName());
+                    tracer.instant(transactionId, "COMMIT to", participant.getName());
+
+                    // Set the commitFuture which will time out if the participant doesn't respond in time
+                    // We would then continue to resend our decision until we get an ACK
+                    // The timeout of the previous attempt is cancelled, so every attempt schedules one retry
+                    if (participant.getCommitFuture() != null) {
+                        participant.getCommitFuture().complete(false);
+                    }
+                    participant.resetCommitFuture();
+                    CompletableFuture<Boolean> commitFuture = participant.getCommitFuture();
+                    scheduler.orTimeout(commitFuture, 10, TimeUnit.SECONDS).exceptionally(e -> {
+                        EVENTS.log(Level.WARNING, "Commit timeout for {0} with transaction {1}", participant.getName(), transactionId);
+                        TimeoutEvent.timedOut(transactionId, "ACK of COMMIT", participant.getName());
+                        // Resend the COMMIT
+                        retryDecision(transactionId);
+                        return true;
+                    });
+
+                    if (multicast) {
+                        // The decision is sent to all participants at once after the loop
+                        return;
+                    }
+
+                    try {
+                        send(Operation.COMMIT, transactionId, decision.array(), decision.size(), participant.getUrl(), participant.getPort());
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Error sending packet: {0}", e.getMessage());
+                        throw new RuntimeException(e);
+                    }
+                });
+
+                if (multicast) {
+                    sendDecision(Operation.COMMIT, transactionId, decision);
+                }
             }
         });
     }
@@ -479,7 +1648,7 @@ public class TravelBrokerServer {
         // Deserialize data to TransactionResult
         TransactionResult result;
         try {
-            result = mapper.readValue(message.getData(), TransactionResult.class);
+            result = resultReader.readValue(message.getData());
         } catch (JsonProcessingException e) {
             LOGGER.log(Level.WARNING, "Error parsing JSON: {0}", e.getMessage());
             throw new RuntimeException(e);
@@ -488,29 +1657,45 @@ public class TravelBrokerServer {
         // Find the context for this transaction
         CoordinatorContext context = contexts.get(message.getTransactionId());
 
+        if (context == null) {
+            // The transaction is already finished, this happens if a vote was
+            // duplicated or arrived after the transaction was aborted
+            EVENTS.log(Level.WARNING, "Received PREPARE for unknown transaction {0}", message.getTransactionId());
+            return;
+        }
+
         // Find the participant within the context
-        Participant participant = context.getParticipants().stream().filter(p -> p.getName().equals(message.getSender())).findFirst().orElseThrow(() -> new RuntimeException("Unknown participant: " + message.getSender()));
+        int index = indexOf(context, message.getSender());
+        if (index < 0) {
+            throw new RuntimeException("Unknown participant: " + message.getSender());
+        }
+        Participant participant = context.getParticipants().get(index);
 
         // Update the vote
         participant.setVote(result.isSuccess() ? Vote.YES : Vote.NO);
+        TransactionTable.Outcome outcome = transactionTable.vote(message.getTransactionId(), index, result.isSuccess());
+        if (outcome == null) {
+            // The table doesn't know the transaction, its context has the votes so far
+            transactionTable.add(context);
+            outcome = transactionTable.vote(message.getTransactionId(), index, result.isSuccess());
+        }
+        tracer.end(message.getTransactionId(), "vote", participant.getName());
         // Mark the participant as having voted and cancel the timeout for this participant
         participant.getPrepareFuture().complete(true);
 
         // If all participants have responded, evaluate the votes
-        if (context.getParticipants().stream().noneMatch((p) -> p.getVote().equals(Vote.PENDING))) {
-            if (context.getParticipants().stream().allMatch((p) -> p.getVote().equals(Vote.YES))) {
-                // All participants have voted YES, so we can commit
-                sendCommit(message.getTransactionId());
-            } else {
-                // At least one participant has voted NO, so we have to abort
-                sendAbort(message.getTransactionId());
-            }
+        if (outcome != TransactionTable.Outcome.PENDING) {
+            // We commit if all participants have voted YES, otherwise we have to abort
+            decide(message.getTransactionId(), outcome == TransactionTable.Outcome.COMMIT);
         } else {
-            logWriter.writeLog(message.getTransactionId(), context);
+            persist(context);
         }
     }
 
     private void receiveCommit(UDPMessage message) {
+        // A parked transaction is resumed when one of its participants acknowledges the decision
+        boolean resumed = unpark(message.getTransactionId());
+
         // Find the context for this transaction
         CoordinatorContext context = contexts.get(message.getTransactionId());
 
@@ -525,41 +1710,57 @@ public class TravelBrokerServer {
         // Parse message data to TransactionResult
         TransactionResult result;
         try {
-            result = mapper.readValue(message.getData(), TransactionResult.class);
+            result = resultReader.readValue(message.getData());
         } catch (JsonProcessingException e) {
             LOGGER.log(Level.WARNING, "Error parsing JSON: {0}", e.getMessage());
             throw new RuntimeException(e);
         }
 
+        tracer.instant(message.getTransactionId(), "ACK from", message.getSender());
+
         // Update the participant if commit was successful
-        if (result.isSuccess()) {
-            context.setParticipants(context.getParticipants().stream().peek(p -> {
-                if (p.getName().equals(message.getSender())) {
-                    p.setDone();
-                    // Cancel the timeout for this participant
-                    p.getCommitFuture().complete(true);
-                }
-            }).toList());
-        }
+        boolean allDone = acknowledge(context, message, result);
 
         // If all participants have responded, we can remove the context
         // and complete the future with true to let our client know that the transaction succeeded
-        if (context.getParticipants().stream().allMatch(Participant::isDone)) {
+        if (allDone) {
             if (context.getSuccess() != null) {
                 // If the context has a future, complete it
                 // When we don't have one the coordinator crashed
                 // and we don't have a way to communicate the result to the client
                 context.getSuccess().complete(true);
             }
+
+            // Remember the committed resources, so conflicting requests are rejected early
+            // and the booking history knows about them before its next refresh
+            long committedAt = System.currentTimeMillis();
+            context.getParticipants().forEach(p -> {
+                BookingContext bookingContext = p.getBookingContext();
+                LocalDate startDate = LocalDate.parse(bookingContext.getStartDate());
+                LocalDate endDate = LocalDate.parse(bookingContext.getEndDate());
+                bookedIntervals.add(bookingContext.getResourceId(), startDate, endDate);
+                bookingHistory.addCommitted(p.getName().equals("HotelProvider") ? BookingRecord.Type.ROOM : BookingRecord.Type.CAR,
+                        message.getTransactionId(), bookingContext.getResourceId(), startDate, endDate, committedAt);
+            });
+
             contexts.remove(message.getTransactionId());
-            logWriter.deleteLog(message.getTransactionId());
+            PhaseEvent.transition(message.getTransactionId(), context.getTransactionState(), "DONE", context.getParticipants().size());
+            forget(message.getTransactionId());
         } else {
             // Otherwise we update the transaction context for the participant
-            logWriter.writeLog(message.getTransactionId(), context);
+            persist(context);
+
+            if (resumed) {
+                // The other participants have no pending timeout since the transaction was parked
+                sendCommit(message.getTransactionId());
+            }
         }
     }
 
     private void receiveAbort(UDPMessage message) {
+        // A parked transaction is resumed when one of its participants acknowledges the decision
+        boolean resumed = unpark(message.getTransactionId());
+
         // Find the context for this transaction
         CoordinatorContext context = contexts.get(message.getTransactionId());
 
@@ -574,38 +1775,96 @@ public class TravelBrokerServer {
         // Parse message data to TransactionResult
         TransactionResult result;
         try {
-            result = mapper.readValue(message.getData(), TransactionResult.class);
+            result = resultReader.readValue(message.getData());
         } catch (JsonProcessingException e) {
             LOGGER.log(Level.WARNING, "Error parsing JSON: {0}", e.getMessage());
             throw new RuntimeException(e);
         }
 
-        // Update the participant if abort was successful
-        if (result.isSuccess()) {
-            context.setParticipants(context.getParticipants().stream().peek(p -> {
-                if (p.getName().equals(message.getSender())) {
-                    p.setDone();
-                    // Cancel the timeout for this participant
-                    p.getCommitFuture().complete(true);
-                }
-            }).toList());
-        }
+        tracer.instant(message.getTransactionId(), "ACK from", message.getSender());
 
+        // Update the participant if abort was successful
+        boolean allDone = acknowledge(context, message, result);
 
         // If all participants have responded, we can remove the context
-        if (context.getParticipants().stream().allMatch(Participant::isDone)) {
+        if (allDone) {
             contexts.remove(message.getTransactionId());
-            logWriter.deleteLog(message.getTransactionId());
+            PhaseEvent.transition(message.getTransactionId(), context.getTransactionState(), "DONE", context.getParticipants().size());
+            forget(message.getTransactionId());
         } else {
             // Otherwise we update the transaction context for the participant
-            logWriter.writeLog(message.getTransactionId(), context);
+            persist(context);
+
+            if (resumed) {
+                // The other participants have no pending timeout since the transaction was parked
+                sendAbort(message.getTransactionId());
+            }
+        }
+    }
+
+    /**
+     * Marks the sender of a successful ACK as done.
+     *
+     * @return true if all participants have acknowledged the decision
+     */
+    private boolean acknowledge(CoordinatorContext context, UDPMessage message, TransactionResult result) {
+        if (!transactionTable.contains(context.getTransactionId())) {
+            // Otherwise an unknown transaction would count as acknowledged by everyone, or by no one
+            transactionTable.add(context);
+        }
+
+        int index = indexOf(context, message.getSender());
+        if (!result.isSuccess() || index < 0) {
+            return transactionTable.pendingAcks(context.getTransactionId()) == 0;
+        }
+
+        Participant participant = context.getParticipants().get(index);
+        // The decision may be sent on the durability stage at the same time, see sendCommit
+        synchronized (context) {
+            participant.setDone();
+            // Cancel the timeout for this participant
+            if (participant.getCommitFuture() != null) {
+                participant.getCommitFuture().complete(true);
+            }
         }
+        return transactionTable.acknowledge(context.getTransactionId(), index);
+    }
+
+    /**
+     * @return the index of the participant in the context, or -1 if it isn't part of the transaction
+     */
+    private static int indexOf(CoordinatorContext context, String name) {
+        List<Participant> contextParticipants = context.getParticipants();
+        for (int i = 0; i < contextParticipants.size(); i++) {
+            if (contextParticipants.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String getCompressionMetrics() {
+        return compression.describeMetrics();
+    }
+
+    public String getDurabilityMetrics() {
+        return durability.describeMetrics();
+    }
+
+    /**
+     * Writes the timeline of the traced transactions in the Chrome trace-event format.
+     *
+     * @param file the file to write to
+     * @return the number of events written
+     */
+    public int exportTrace(Path file) throws IOException {
+        return tracer.export(file);
     }
 
     private CompletableFuture<Map<String, List<Object>>> getMapCompletableFuture(List<CompletableFuture<UDPMessage>> futures, boolean isAvailability) {
         return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).thenApply(response -> {
             Map<String, List<Object>> result = new HashMap<>();
-            LOGGER.log(Level.INFO, "All responses received");
+            EVENTS.log(Level.FINE, "All responses received");
 
             futures.forEach(msg -> {
                 try {
@@ -613,28 +1872,24 @@ public class TravelBrokerServer {
                     UDPMessage message = msg.get();
                     switch (message.getSender()) {
                         case "HotelProvider" -> {
-                            LOGGER.log(Level.INFO, "Parsing HotelProvider response");
+                            EVENTS.log(Level.FINE, "Parsing HotelProvider response");
 
                             if (isAvailability) {
-                                List<Room> rooms = mapper.readValue(message.getData(), new TypeReference<>() {
-                                });
+                                List<Room> rooms = compression.read(roomsReader, message.getData(), message.getSender());
                                 result.put(message.getSender(), new ArrayList<>(rooms));
                             } else {
-                                List<Booking> bookings = mapper.readValue(message.getData(), new TypeReference<>() {
-                                });
+                                List<Booking> bookings = compression.read(bookingsReader, message.getData(), message.getSender());
                                 result.put(message.getSender(), new ArrayList<>(bookings));
                             }
                         }
                         case "CarProvider" -> {
-                            LOGGER.log(Level.INFO, "Parsing CarProvider response");
+                            EVENTS.log(Level.FINE, "Parsing CarProvider response");
 
                             if (isAvailability) {
-                                List<Car> cars = mapper.readValue(message.getData(), new TypeReference<>() {
-                                });
+                                List<Car> cars = compression.read(carsReader, message.getData(), message.getSender());
                                 result.put(message.getSender(), new ArrayList<>(cars));
                             } else {
-                                List<Rental> rentals = mapper.readValue(message.getData(), new TypeReference<>() {
-                                });
+                                List<Rental> rentals = compression.read(rentalsReader, message.getData(), message.getSender());
                                 result.put(message.getSender(), new ArrayList<>(rentals));
                             }
                         }
@@ -646,13 +1901,13 @@ public class TravelBrokerServer {
                 } catch (InterruptedException e) {
                     LOGGER.log(Level.WARNING, "Interrupted while waiting for response", e);
                     throw new RuntimeException(e);
-                } catch (JsonProcessingException e) {
+                } catch (IOException e) {
                     LOGGER.log(Level.WARNING, "Error parsing JSON", e);
                     throw new RuntimeException(e);
                 }
             });
 
-            LOGGER.log(Level.INFO, "Returning result {0}", result);
+            EVENTS.log(Level.FINE, "Returning {0} result lists", result.size());
             return result;
         });
     }
@@ -0,0 +1,43 @@
+package org.wwi21seb.vs.group5.travelbroker.Server;
+
+import org.wwi21seb.vs.group5.Model.Car;
+import org.wwi21seb.vs.group5.Model.Room;
+
+import java.util.UUID;
+
+/**
+ * A TravelPackage is a combination of a room and a car that both fit the
+ * requested capacity, together with the total price for the whole stay.
+ */
+public class TravelPackage {
+
+    private final Room room;
+    private final Car car;
+    private final double totalPrice;
+
+    public TravelPackage(Room room, Car car, double totalPrice) {
+        this.room = room;
+        this.car = car;
+        this.totalPrice = totalPrice;
+    }
+
+    public Room getRoom() {
+        return room;
+    }
+
+    public Car getCar() {
+        return car;
+    }
+
+    public UUID getRoomId() {
+        return room.getId();
+    }
+
+    public UUID getCarId() {
+        return car.getId();
+    }
+
+    public double getTotalPrice() {
+        return totalPrice;
+    }
+}
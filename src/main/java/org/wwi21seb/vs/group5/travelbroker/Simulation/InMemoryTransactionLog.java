@@ -0,0 +1,80 @@
+package org.wwi21seb.vs.group5.travelbroker.Simulation;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.CoordinatorContext;
+import org.wwi21seb.vs.group5.travelbroker.Server.BookingGroupRecord;
+import org.wwi21seb.vs.group5.travelbroker.Server.TransactionLog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The InMemoryTransactionLog keeps the serialized contexts in memory instead of
+ * files. The contexts are serialized like in a file, so a recovered context is
+ * a copy of the state that was written and not the live object.
+ */
+public class InMemoryTransactionLog implements TransactionLog {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<UUID, byte[]> logs = new LinkedHashMap<>();
+    // The records of a group are immutable, so they are kept as they are
+    private final Map<UUID, BookingGroupRecord> groups = new LinkedHashMap<>();
+
+    private long writes = 0;
+
+    @Override
+    public synchronized void write(CoordinatorContext context) {
+        try {
+            logs.put(context.getTransactionId(), mapper.writeValueAsBytes(context));
+            writes++;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized void delete(UUID transactionId) {
+        logs.remove(transactionId);
+    }
+
+    @Override
+    public synchronized List<CoordinatorContext> readAll() {
+        List<CoordinatorContext> contexts = new ArrayList<>();
+        for (byte[] log : logs.values()) {
+            try {
+                contexts.add(mapper.readValue(log, CoordinatorContext.class));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return contexts;
+    }
+
+    @Override
+    public synchronized void writeGroup(BookingGroupRecord group) {
+        groups.put(group.getGroupId(), group);
+        writes++;
+    }
+
+    @Override
+    public synchronized void deleteGroup(UUID groupId) {
+        groups.remove(groupId);
+    }
+
+    @Override
+    public synchronized List<BookingGroupRecord> readGroups() {
+        return new ArrayList<>(groups.values());
+    }
+
+    public synchronized long getWrites() {
+        return writes;
+    }
+
+    public synchronized int size() {
+        return logs.size();
+    }
+}
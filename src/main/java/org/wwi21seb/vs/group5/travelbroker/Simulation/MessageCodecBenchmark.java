@@ -0,0 +1,110 @@
+package org.wwi21seb.vs.group5.travelbroker.Simulation;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.wwi21seb.vs.group5.Logger.LoggerFactory;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.BookingContext;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.Coordinator;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.CoordinatorContext;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.Participant;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.TransactionState;
+import org.wwi21seb.vs.group5.UDP.Operation;
+import org.wwi21seb.vs.group5.UDP.UDPMessage;
+import org.wwi21seb.vs.group5.travelbroker.Server.MessageCodec;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The MessageCodecBenchmark measures the heap allocated per message by the
+ * MessageCodec and by the String-based encoding it replaced. Every round
+ * encodes and decodes {@code benchmark.messages} PREPAREs and COMMITs (default
+ * 100000) with both, {@code benchmark.rounds} times (default 10). The
+ * allocations are read from the allocation counter of the benchmark thread,
+ * so they don't depend on the GC.
+ * <p>
+ * The first rounds include the warm-up of the JIT, which allocates on its own,
+ * so the later rounds are the ones to compare.
+ */
+public class MessageCodecBenchmark {
+    // The logger is used to log messages to the console.
+    private static final Logger LOGGER = LoggerFactory.setupLogger(MessageCodecBenchmark.class.getName());
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Keeps the results of the encoding and decoding alive, so the JIT can't drop them
+    private static long checksum = 0;
+
+    public static void main(String[] args) throws IOException {
+        int messages = Integer.getInteger("benchmark.messages", 100_000);
+        int rounds = Integer.getInteger("benchmark.rounds", 10);
+
+        ObjectMapper mapper = new ObjectMapper();
+        MessageCodec codec = new MessageCodec(mapper);
+        UDPMessage[] samples = createMessages(mapper);
+        byte[][] encoded = new byte[samples.length][];
+        for (int i = 0; i < samples.length; i++) {
+            encoded[i] = codec.encodeToArray(samples[i]);
+        }
+
+        for (int round = 0; round < rounds; round++) {
+            long codecEncode = allocated(() -> {
+                for (int i = 0; i < messages; i++) {
+                    checksum += codec.encode(samples[i % samples.length]).size();
+                }
+            });
+            long stringEncode = allocated(() -> {
+                for (int i = 0; i < messages; i++) {
+                    checksum += mapper.writeValueAsString(samples[i % samples.length]).getBytes(StandardCharsets.UTF_8).length;
+                }
+            });
+            long codecDecode = allocated(() -> {
+                for (int i = 0; i < messages; i++) {
+                    byte[] data = encoded[i % encoded.length];
+                    checksum += codec.decode(data, 0, data.length).getOperation().ordinal();
+                }
+            });
+            long stringDecode = allocated(() -> {
+                for (int i = 0; i < messages; i++) {
+                    byte[] data = encoded[i % encoded.length];
+                    checksum += mapper.readValue(new String(data, 0, data.length, StandardCharsets.UTF_8), UDPMessage.class).getOperation().ordinal();
+                }
+            });
+
+            LOGGER.log(Level.INFO, String.format("Round %d: encode %d bytes/message (String %d), decode %d bytes/message (String %d)",
+                    round, codecEncode / messages, stringEncode / messages, codecDecode / messages, stringDecode / messages));
+        }
+        LOGGER.log(Level.FINE, "Checksum {0}", checksum);
+    }
+
+    private static UDPMessage[] createMessages(ObjectMapper mapper) throws IOException {
+        InetAddress address = InetAddress.getLoopbackAddress();
+        List<Participant> participants = List.of(new Participant("CarProvider", address, 5001), new Participant("HotelProvider", address, 5002));
+        participants.forEach(participant -> participant.setBookingContext(new BookingContext(UUID.randomUUID(), "2030-01-01", "2030-01-05", 2)));
+        UUID transactionId = UUID.randomUUID();
+        CoordinatorContext context = new CoordinatorContext(transactionId, TransactionState.PREPARE, new Coordinator("TravelBroker", address, 4999), participants);
+
+        return new UDPMessage[]{
+                new UDPMessage(Operation.PREPARE, transactionId, "TravelBroker", mapper.writeValueAsString(context)),
+                new UDPMessage(Operation.COMMIT, transactionId, "TravelBroker", null)
+        };
+    }
+
+    /**
+     * Runs the task and returns the bytes it allocated on this thread.
+     */
+    private static long allocated(IoTask task) throws IOException {
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        task.run();
+        return THREADS.getCurrentThreadAllocatedBytes() - before;
+    }
+
+    private interface IoTask {
+        void run() throws IOException;
+    }
+}
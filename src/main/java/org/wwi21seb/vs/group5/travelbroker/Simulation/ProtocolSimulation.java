@@ -0,0 +1,162 @@
+package org.wwi21seb.vs.group5.travelbroker.Simulation;
+
+import org.wwi21seb.vs.group5.Logger.LoggerFactory;
+import org.wwi21seb.vs.group5.Request.ReservationRequest;
+import org.wwi21seb.vs.group5.travelbroker.Server.TravelBrokerServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The ProtocolSimulation runs many bookings through a real TravelBrokerServer on
+ * a simulated network with a virtual clock. It reports the commit latency and
+ * the retransmissions and checks that every transaction is atomic: both
+ * providers committed it or none did, and the result of the booking agrees.
+ * <p>
+ * The simulation is configured with the system properties
+ * {@code simulation.bookings} (default 10000), {@code simulation.seed}
+ * (default 42), {@code simulation.bookingsPerSecond} (virtual, default 200),
+ * {@code simulation.loss} and {@code simulation.duplicate} (probabilities per
+ * datagram, default 0.01), {@code simulation.minDelayMillis} and
+ * {@code simulation.maxDelayMillis} (default 1 and 20), {@code simulation.refuse}
+ * (probability of a NO vote, default 0.05) and {@code simulation.partition}
+ * ({@code <from>-<until>} in virtual seconds during which the HotelProvider is
+ * unreachable, default none).
+ */
+public class ProtocolSimulation {
+    // The logger is used to log messages to the console.
+    private static final Logger LOGGER = LoggerFactory.setupLogger(ProtocolSimulation.class.getName());
+
+    // The ports of the participants are the ones the server expects
+    private static final int BROKER_PORT = 4998;
+    private static final int CAR_PROVIDER_PORT = 5001;
+    private static final int HOTEL_PROVIDER_PORT = 5002;
+
+    public static void main(String[] args) throws IOException {
+        int bookings = Integer.getInteger("simulation.bookings", 10000);
+        long seed = Long.getLong("simulation.seed", 42);
+        int bookingsPerSecond = Integer.getInteger("simulation.bookingsPerSecond", 200);
+        double loss = Double.parseDouble(System.getProperty("simulation.loss", "0.01"));
+        double duplicate = Double.parseDouble(System.getProperty("simulation.duplicate", "0.01"));
+        long minDelay = Long.getLong("simulation.minDelayMillis", 1);
+        long maxDelay = Long.getLong("simulation.maxDelayMillis", 20);
+        double refuse = Double.parseDouble(System.getProperty("simulation.refuse", "0.05"));
+        String partition = System.getProperty("simulation.partition");
+
+        VirtualClock clock = new VirtualClock();
+        SimulatedNetwork network = new SimulatedNetwork(clock, seed, loss, duplicate, minDelay, maxDelay, TimeUnit.MILLISECONDS);
+        if (partition != null) {
+            String[] bounds = partition.split("-");
+            network.partition(HOTEL_PROVIDER_PORT, TimeUnit.SECONDS.toNanos(Long.parseLong(bounds[0])), TimeUnit.SECONDS.toNanos(Long.parseLong(bounds[1])));
+        }
+
+        SimulatedParticipant carProvider = new SimulatedParticipant("CarProvider", network.endpoint(CAR_PROVIDER_PORT), seed + 1, refuse);
+        SimulatedParticipant hotelProvider = new SimulatedParticipant("HotelProvider", network.endpoint(HOTEL_PROVIDER_PORT), seed + 2, refuse);
+        carProvider.start();
+        hotelProvider.start();
+
+        InMemoryTransactionLog transactionLog = new InMemoryTransactionLog();
+        // No checkpoint is written without the background tasks, the directory stays empty
+        Path checkpointDirectory = Files.createTempDirectory("travelbroker-checkpoints");
+        checkpointDirectory.toFile().deleteOnExit();
+        TravelBrokerServer server = new TravelBrokerServer(network.endpoint(BROKER_PORT), null, Map.of(), clock, transactionLog, Runnable::run,
+                checkpointDirectory, List.of(), List.of(), false);
+        server.startTransport();
+
+        // The results and latencies of the bookings, by the order in which they were started
+        Boolean[] results = new Boolean[bookings];
+        long[] latencies = new long[bookings];
+        Random random = new Random(seed);
+        long interval = TimeUnit.SECONDS.toNanos(1) / bookingsPerSecond;
+
+        for (int i = 0; i < bookings; i++) {
+            int booking = i;
+            // Every booking gets its own room and car, so none is rejected as a known conflict
+            UUID roomId = new UUID(random.nextLong(), random.nextLong());
+            UUID carId = new UUID(random.nextLong(), random.nextLong());
+
+            clock.schedule(() -> {
+                long start = clock.nanoTime();
+                ReservationRequest reservationRequest = new ReservationRequest(null, "2030-01-01", "2030-01-05", 2);
+                server.book(reservationRequest, roomId, carId).whenComplete((success, e) -> {
+                    results[booking] = success != null && success;
+                    latencies[booking] = clock.nanoTime() - start;
+                });
+            }, booking * interval, TimeUnit.NANOSECONDS);
+        }
+
+        long wallStart = System.nanoTime();
+        clock.runUntilIdle();
+        long wallNanos = System.nanoTime() - wallStart;
+
+        report(bookings, results, latencies, clock, network, transactionLog, carProvider, hotelProvider, wallNanos);
+    }
+
+    private static void report(int bookings, Boolean[] results, long[] latencies, VirtualClock clock, SimulatedNetwork network,
+                               InMemoryTransactionLog transactionLog, SimulatedParticipant carProvider, SimulatedParticipant hotelProvider, long wallNanos) {
+        long committed = Arrays.stream(results).filter(Boolean.TRUE::equals).count();
+        long unfinished = Arrays.stream(results).filter(Objects::isNull).count();
+        long[] commitLatencies = new long[(int) committed];
+        for (int i = 0, j = 0; i < bookings; i++) {
+            if (Boolean.TRUE.equals(results[i])) {
+                commitLatencies[j++] = latencies[i];
+            }
+        }
+        Arrays.sort(commitLatencies);
+
+        // Every transaction must be committed by both providers or by none of them
+        List<String> violations = new ArrayList<>(carProvider.getViolations());
+        violations.addAll(hotelProvider.getViolations());
+        Set<UUID> transactionIds = new HashSet<>(carProvider.getTransactionIds());
+        transactionIds.addAll(hotelProvider.getTransactionIds());
+        long committedByBoth = 0;
+        long inDoubt = 0;
+        for (UUID transactionId : transactionIds) {
+            boolean carCommitted = carProvider.getState(transactionId) == SimulatedParticipant.State.COMMITTED;
+            boolean hotelCommitted = hotelProvider.getState(transactionId) == SimulatedParticipant.State.COMMITTED;
+            if (carCommitted != hotelCommitted) {
+                violations.add(String.format("Transaction %s is only committed by one provider", transactionId));
+            } else if (carCommitted) {
+                committedByBoth++;
+            }
+            if (carProvider.getState(transactionId) == SimulatedParticipant.State.PREPARED
+                    || hotelProvider.getState(transactionId) == SimulatedParticipant.State.PREPARED) {
+                inDoubt++;
+            }
+        }
+        if (committedByBoth != committed) {
+            violations.add(String.format("%d bookings succeeded, but %d transactions were committed", committed, committedByBoth));
+        }
+
+        // The broker sends a PREPARE and a decision to each provider, everything else is a retransmission
+        long retransmissions = network.getSentDatagrams(BROKER_PORT) - 4L * bookings;
+
+        LOGGER.log(Level.INFO, String.format("Simulated %d bookings in %.1f s of virtual time and %.1f s of wall time (%.0f bookings per second)",
+                bookings, clock.nanoTime() / 1e9, wallNanos / 1e9, bookings / (wallNanos / 1e9)));
+        LOGGER.log(Level.INFO, String.format("Committed %d, aborted %d, unfinished %d, in doubt at a provider %d",
+                committed, bookings - committed - unfinished, unfinished, inDoubt));
+        if (commitLatencies.length > 0) {
+            LOGGER.log(Level.INFO, String.format("Commit latency p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+                    percentile(commitLatencies, 0.5) / 1e6, percentile(commitLatencies, 0.99) / 1e6, commitLatencies[commitLatencies.length - 1] / 1e6));
+        }
+        LOGGER.log(Level.INFO, String.format("Datagrams lost %d, duplicated %d, retransmitted by the broker %d, duplicate decisions at the providers %d",
+                network.getLostDatagrams(), network.getDuplicatedDatagrams(), retransmissions,
+                carProvider.getDuplicateDecisions() + hotelProvider.getDuplicateDecisions()));
+        LOGGER.log(Level.INFO, String.format("Log writes %d, open logs %d", transactionLog.getWrites(), transactionLog.size()));
+
+        if (violations.isEmpty()) {
+            LOGGER.log(Level.INFO, "All transactions are atomic");
+        } else {
+            violations.forEach(violation -> LOGGER.log(Level.SEVERE, violation));
+        }
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return sorted[Math.min(sorted.length - 1, (int) (percentile * sorted.length))];
+    }
+}
@@ -0,0 +1,166 @@
+package org.wwi21seb.vs.group5.travelbroker.Simulation;
+
+import org.wwi21seb.vs.group5.travelbroker.Network.Transport;
+
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The SimulatedNetwork delivers datagrams between the transports of its nodes
+ * on a {@link VirtualClock}. Every datagram is delayed by a random time between
+ * the minimum and maximum delay, so datagrams overtake each other, and is lost
+ * or duplicated with the configured probabilities. A node can be partitioned
+ * from the network for a period of time. All random decisions come from one
+ * seeded Random, so a simulation can be repeated exactly.
+ * <p>
+ * A datagram to a multicast address is delivered to every other node.
+ */
+public class SimulatedNetwork {
+
+    private final VirtualClock clock;
+    private final Random random;
+    private final double lossRate;
+    private final double duplicateRate;
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+
+    // The receivers of the nodes, mapped by their port
+    private final Map<Integer, Transport.Receiver> receivers = new TreeMap<>();
+    private final List<Partition> partitions = new ArrayList<>();
+    private final Map<Integer, Long> sentDatagrams = new HashMap<>();
+
+    private long lostDatagrams = 0;
+    private long duplicatedDatagrams = 0;
+
+    public SimulatedNetwork(VirtualClock clock, long seed, double lossRate, double duplicateRate, long minDelay, long maxDelay, TimeUnit unit) {
+        this.clock = clock;
+        this.random = new Random(seed);
+        this.lossRate = lossRate;
+        this.duplicateRate = duplicateRate;
+        this.minDelayNanos = unit.toNanos(minDelay);
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+    }
+
+    /**
+     * Creates the transport of the node with the given port.
+     *
+     * @param port the port of the node, datagrams to this port are delivered to it
+     * @return the transport of the node
+     */
+    public Transport endpoint(int port) {
+        return new Endpoint(port);
+    }
+
+    /**
+     * Drops all datagrams that the node sends or should receive during the given period.
+     *
+     * @param port       the port of the node
+     * @param fromNanos  the start of the partition on the virtual clock
+     * @param untilNanos the end of the partition on the virtual clock
+     */
+    public void partition(int port, long fromNanos, long untilNanos) {
+        partitions.add(new Partition(port, fromNanos, untilNanos));
+    }
+
+    public long getSentDatagrams(int port) {
+        return sentDatagrams.getOrDefault(port, 0L);
+    }
+
+    public long getLostDatagrams() {
+        return lostDatagrams;
+    }
+
+    public long getDuplicatedDatagrams() {
+        return duplicatedDatagrams;
+    }
+
+    private void send(int from, byte[] data, int length, InetAddress address, int port) {
+        sentDatagrams.merge(from, 1L, Long::sum);
+
+        if (address.isMulticastAddress()) {
+            for (int to : new ArrayList<>(receivers.keySet())) {
+                if (to != from) {
+                    transmit(from, data, length, to);
+                }
+            }
+        } else {
+            transmit(from, data, length, port);
+        }
+    }
+
+    private void transmit(int from, byte[] data, int length, int to) {
+        // The sender may reuse its buffer as soon as send returns
+        byte[] copy = Arrays.copyOf(data, length);
+        int copies = random.nextDouble() < duplicateRate ? 2 : 1;
+        if (copies == 2) {
+            duplicatedDatagrams++;
+        }
+
+        for (int i = 0; i < copies; i++) {
+            if (random.nextDouble() < lossRate || isPartitioned(from) || isPartitioned(to)) {
+                lostDatagrams++;
+                continue;
+            }
+
+            long delay = minDelayNanos + (long) (random.nextDouble() * (maxDelayNanos - minDelayNanos));
+            clock.schedule(() -> {
+                Transport.Receiver receiver = receivers.get(to);
+                if (receiver != null) {
+                    receiver.receive(copy, 0, copy.length, InetAddress.getLoopbackAddress(), from);
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private boolean isPartitioned(int port) {
+        long now = clock.nanoTime();
+        for (Partition partition : partitions) {
+            if (partition.port == port && now >= partition.fromNanos && now < partition.untilNanos) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An Endpoint is the transport of a single node.
+     */
+    private class Endpoint implements Transport {
+        private final int port;
+
+        private Endpoint(int port) {
+            this.port = port;
+        }
+
+        @Override
+        public void send(byte[] data, int length, InetAddress address, int port) {
+            SimulatedNetwork.this.send(this.port, data, length, address, port);
+        }
+
+        @Override
+        public void start(String name, Receiver receiver) {
+            receivers.put(port, receiver);
+        }
+
+        @Override
+        public int getLocalPort() {
+            return port;
+        }
+    }
+
+    /**
+     * A Partition cuts a node off the network for a period of time.
+     */
+    private static class Partition {
+        private final int port;
+        private final long fromNanos;
+        private final long untilNanos;
+
+        private Partition(int port, long fromNanos, long untilNanos) {
+            this.port = port;
+            this.fromNanos = fromNanos;
+            this.untilNanos = untilNanos;
+        }
+    }
+}
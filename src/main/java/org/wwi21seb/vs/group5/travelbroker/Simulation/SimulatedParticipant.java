@@ -0,0 +1,120 @@
+package org.wwi21seb.vs.group5.travelbroker.Simulation;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.wwi21seb.vs.group5.UDP.Operation;
+import org.wwi21seb.vs.group5.UDP.UDPMessage;
+import org.wwi21seb.vs.group5.travelbroker.Network.Transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.*;
+
+/**
+ * The SimulatedParticipant plays a provider in our simulations. It votes YES on
+ * a PREPARE unless it randomly refuses, and acknowledges every COMMIT and ABORT.
+ * Its decisions are remembered per transaction, so repeated messages are
+ * answered the same way, and every COMMIT or ABORT that contradicts its state
+ * is recorded as a violation of the protocol.
+ */
+public class SimulatedParticipant {
+
+    private final String name;
+    private final Transport transport;
+    private final Random random;
+    private final double refuseRate;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Map<UUID, State> states = new HashMap<>();
+    private final List<String> violations = new ArrayList<>();
+    private long duplicateDecisions = 0;
+
+    public SimulatedParticipant(String name, Transport transport, long seed, double refuseRate) {
+        this.name = name;
+        this.transport = transport;
+        this.random = new Random(seed);
+        this.refuseRate = refuseRate;
+    }
+
+    public void start() {
+        transport.start(name, this::receive);
+    }
+
+    public State getState(UUID transactionId) {
+        return states.get(transactionId);
+    }
+
+    public Set<UUID> getTransactionIds() {
+        return states.keySet();
+    }
+
+    public List<String> getViolations() {
+        return violations;
+    }
+
+    public long getDuplicateDecisions() {
+        return duplicateDecisions;
+    }
+
+    private void receive(byte[] data, int offset, int length, InetAddress address, int port) {
+        UDPMessage message;
+        try {
+            message = mapper.readValue(data, offset, length, UDPMessage.class);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        UUID transactionId = message.getTransactionId();
+        State state = states.get(transactionId);
+
+        switch (message.getOperation()) {
+            case PREPARE -> {
+                if (state == null) {
+                    state = random.nextDouble() < refuseRate ? State.REFUSED : State.PREPARED;
+                    states.put(transactionId, state);
+                }
+                // A repeated PREPARE gets the same vote, unless the transaction was decided in the meantime
+                reply(Operation.PREPARE, transactionId, state != State.REFUSED && state != State.ABORTED, address, port);
+            }
+            case COMMIT -> {
+                if (state == State.COMMITTED) {
+                    duplicateDecisions++;
+                } else if (state != State.PREPARED) {
+                    violations.add(String.format("%s received COMMIT for transaction %s in state %s", name, transactionId, state));
+                } else {
+                    states.put(transactionId, State.COMMITTED);
+                }
+                reply(Operation.COMMIT, transactionId, true, address, port);
+            }
+            case ABORT -> {
+                if (state == State.ABORTED) {
+                    duplicateDecisions++;
+                } else if (state == State.COMMITTED) {
+                    violations.add(String.format("%s received ABORT for committed transaction %s", name, transactionId));
+                } else {
+                    // The PREPARE may have been lost, so the transaction can be unknown
+                    states.put(transactionId, State.ABORTED);
+                }
+                reply(Operation.ABORT, transactionId, true, address, port);
+            }
+            default -> violations.add(String.format("%s received unexpected %s", name, message.getOperation()));
+        }
+    }
+
+    private void reply(Operation operation, UUID transactionId, boolean success, InetAddress address, int port) {
+        try {
+            byte[] reply = mapper.writeValueAsBytes(new UDPMessage(operation, transactionId, name, String.format("{\"success\":%b}", success)));
+            transport.send(reply, reply.length, address, port);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public enum State {
+        // Voted YES and waiting for the decision
+        PREPARED,
+        // Voted NO
+        REFUSED,
+        COMMITTED,
+        ABORTED
+    }
+}
@@ -0,0 +1,176 @@
+package org.wwi21seb.vs.group5.travelbroker.Simulation;
+
+import org.wwi21seb.vs.group5.Logger.LoggerFactory;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.Coordinator;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.CoordinatorContext;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.Participant;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.TransactionState;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.Vote;
+import org.wwi21seb.vs.group5.travelbroker.Server.TransactionTable;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The TransactionTableBenchmark measures what the TransactionTable costs and
+ * saves on the receiving thread. The server keeps the contexts next to the
+ * table, so the table is compared as an addition to the contexts and not as
+ * their replacement. It keeps {@code benchmark.transactions} (default 100000)
+ * transactions open at once, reports the heap used by the contexts alone and
+ * the heap the table adds, and then runs the votes and ACKs of every
+ * transaction {@code benchmark.rounds} times (default 10). Both runs update the
+ * participants of the contexts like the server does, one of them counts the
+ * votes and ACKs with the table, the other one by walking the participants.
+ * Every round starts with fresh contexts and table entries, so each run
+ * actually counts the votes from PENDING.
+ * <p>
+ * The heap is measured after a GC, so run it with a fixed heap, e.g.
+ * {@code -Xms2g -Xmx2g}, for stable numbers.
+ */
+public class TransactionTableBenchmark {
+    // The logger is used to log messages to the console.
+    private static final Logger LOGGER = LoggerFactory.setupLogger(TransactionTableBenchmark.class.getName());
+
+    private static final String[] SENDERS = {"CarProvider", "HotelProvider"};
+
+    public static void main(String[] args) {
+        int transactions = Integer.getInteger("benchmark.transactions", 100_000);
+        int rounds = Integer.getInteger("benchmark.rounds", 10);
+
+        UUID[] ids = new UUID[transactions];
+        for (int i = 0; i < transactions; i++) {
+            ids[i] = UUID.randomUUID();
+        }
+
+        long baseline = usedHeap();
+        ConcurrentHashMap<UUID, CoordinatorContext> contexts = new ConcurrentHashMap<>();
+        reset(contexts, null, ids);
+        long contextBytes = usedHeap() - baseline;
+
+        baseline = usedHeap();
+        TransactionTable table = new TransactionTable(transactions);
+        reset(contexts, table, ids);
+        long tableBytes = usedHeap() - baseline;
+
+        LOGGER.log(Level.INFO, String.format("%d open transactions: contexts %.1f MiB (%d bytes each), the table adds %.1f MiB (%d bytes each, %.1f%%)",
+                transactions, contextBytes / 1048576.0, contextBytes / transactions, tableBytes / 1048576.0, tableBytes / transactions,
+                100.0 * tableBytes / contextBytes));
+
+        for (int round = 0; round < rounds; round++) {
+            reset(contexts, table, ids);
+            long tableNanos = runWithTable(contexts, table, ids);
+            reset(contexts, table, ids);
+            long contextNanos = runContexts(contexts, ids);
+            LOGGER.log(Level.INFO, String.format("Round %d: contexts and table %.0f transactions/s, contexts alone %.0f transactions/s",
+                    round, transactions / (tableNanos / 1e9), transactions / (contextNanos / 1e9)));
+        }
+    }
+
+    /**
+     * Replaces every context with a new one in the PREPARE state without votes,
+     * and its entry in the table with the one of the new context.
+     */
+    private static void reset(ConcurrentHashMap<UUID, CoordinatorContext> contexts, TransactionTable table, UUID[] ids) {
+        for (UUID id : ids) {
+            CoordinatorContext context = createContext(id);
+            contexts.put(id, context);
+            if (table != null) {
+                table.add(context);
+            }
+        }
+    }
+
+    private static CoordinatorContext createContext(UUID id) {
+        InetAddress address = InetAddress.getLoopbackAddress();
+        List<Participant> participants = List.of(new Participant("CarProvider", address, 5001), new Participant("HotelProvider", address, 5002));
+        return new CoordinatorContext(id, TransactionState.PREPARE, new Coordinator("TravelBroker", address, 4999), participants);
+    }
+
+    /**
+     * Runs the votes and ACKs like the server: the participant is updated in its
+     * context, the votes and ACKs are counted by the table.
+     */
+    private static long runWithTable(ConcurrentHashMap<UUID, CoordinatorContext> contexts, TransactionTable table, UUID[] ids) {
+        long start = System.nanoTime();
+        int committed = 0;
+        for (UUID id : ids) {
+            CoordinatorContext context = contexts.get(id);
+            TransactionTable.Outcome outcome = TransactionTable.Outcome.PENDING;
+            for (String sender : SENDERS) {
+                int index = indexOf(context, sender);
+                context.getParticipants().get(index).setVote(Vote.YES);
+                outcome = table.vote(id, index, true);
+            }
+            if (outcome == TransactionTable.Outcome.COMMIT) {
+                context.setTransactionState(TransactionState.COMMIT);
+                table.setState(id, TransactionState.COMMIT);
+                boolean allDone = false;
+                for (String sender : SENDERS) {
+                    int index = indexOf(context, sender);
+                    context.getParticipants().get(index).setDone();
+                    allDone = table.acknowledge(id, index);
+                }
+                if (allDone) {
+                    committed++;
+                }
+            }
+        }
+        check(committed, ids.length);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Runs the votes and ACKs without the table, the votes and ACKs are counted
+     * by walking the participants of the context.
+     */
+    private static long runContexts(ConcurrentHashMap<UUID, CoordinatorContext> contexts, UUID[] ids) {
+        long start = System.nanoTime();
+        int committed = 0;
+        for (UUID id : ids) {
+            CoordinatorContext context = contexts.get(id);
+            for (String sender : SENDERS) {
+                context.getParticipants().get(indexOf(context, sender)).setVote(Vote.YES);
+            }
+            if (context.getParticipants().stream().noneMatch(p -> p.getVote().equals(Vote.PENDING))
+                    && context.getParticipants().stream().allMatch(p -> p.getVote().equals(Vote.YES))) {
+                context.setTransactionState(TransactionState.COMMIT);
+                for (String sender : SENDERS) {
+                    context.getParticipants().get(indexOf(context, sender)).setDone();
+                }
+                if (context.getParticipants().stream().allMatch(Participant::isDone)) {
+                    committed++;
+                }
+            }
+        }
+        check(committed, ids.length);
+        return System.nanoTime() - start;
+    }
+
+    private static int indexOf(CoordinatorContext context, String name) {
+        List<Participant> participants = context.getParticipants();
+        for (int i = 0; i < participants.size(); i++) {
+            if (participants.get(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Unknown participant " + name);
+    }
+
+    private static void check(int committed, int transactions) {
+        if (committed != transactions) {
+            throw new IllegalStateException(String.format("Committed %d of %d transactions", committed, transactions));
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
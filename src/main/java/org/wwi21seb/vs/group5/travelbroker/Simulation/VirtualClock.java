@@ -0,0 +1,67 @@
+package org.wwi21seb.vs.group5.travelbroker.Simulation;
+
+import org.wwi21seb.vs.group5.travelbroker.Network.Scheduler;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The VirtualClock is the Scheduler of our simulations. Time only advances when
+ * the next task is run, so a simulation runs as fast as its tasks allow and
+ * waiting for a timeout costs nothing. Tasks with the same time run in the
+ * order they were scheduled, which makes every run with the same seed repeat
+ * exactly. The clock is not thread-safe, the whole simulation runs on the
+ * thread that calls {@link #runUntilIdle()}.
+ */
+public class VirtualClock implements Scheduler {
+
+    private final PriorityQueue<Event> queue = new PriorityQueue<>(Comparator.comparingLong((Event event) -> event.time).thenComparingLong(event -> event.sequence));
+
+    private long now = 0;
+    private long sequence = 0;
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    @Override
+    public Task schedule(Runnable task, long delay, TimeUnit unit) {
+        Event event = new Event(now + unit.toNanos(delay), sequence++, task);
+        queue.add(event);
+        return () -> event.cancelled = true;
+    }
+
+    /**
+     * Runs the tasks in the order of their time until there are none left.
+     */
+    public void runUntilIdle() {
+        Event event;
+        while ((event = queue.poll()) != null) {
+            if (event.cancelled) {
+                // Cancelled tasks don't advance the time
+                continue;
+            }
+
+            now = event.time;
+            event.task.run();
+        }
+    }
+
+    /**
+     * An Event is a scheduled task.
+     */
+    private static class Event {
+        private final long time;
+        private final long sequence;
+        private final Runnable task;
+        private boolean cancelled = false;
+
+        private Event(long time, long sequence, Runnable task) {
+            this.time = time;
+            this.sequence = sequence;
+            this.task = task;
+        }
+    }
+}
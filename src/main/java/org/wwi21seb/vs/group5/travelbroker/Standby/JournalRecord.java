@@ -0,0 +1,78 @@
+package org.wwi21seb.vs.group5.travelbroker.Standby;
+
+import java.util.UUID;
+
+/**
+ * A JournalRecord is shipped from the primary broker to the standby for every
+ * change of the coordinator log. The records are sent as one JSON object per
+ * line over a TCP connection, so they arrive complete and in order. Every new
+ * connection starts with a WRITE of each transaction that is still open or
+ * parked and a GROUP of each all-or-nothing group that is still logged.
+ */
+public class JournalRecord {
+
+    private Type type;
+    private UUID transactionId;
+    private String context;
+    // True if the transaction of a WRITE is parked, its decision is only retried in the background
+    private boolean parked;
+
+    public JournalRecord() {
+    }
+
+    public JournalRecord(Type type, UUID transactionId, String context) {
+        this(type, transactionId, context, false);
+    }
+
+    public JournalRecord(Type type, UUID transactionId, String context, boolean parked) {
+        this.type = type;
+        this.transactionId = transactionId;
+        this.context = context;
+        this.parked = parked;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public UUID getTransactionId() {
+        return transactionId;
+    }
+
+    public void setTransactionId(UUID transactionId) {
+        this.transactionId = transactionId;
+    }
+
+    public String getContext() {
+        return context;
+    }
+
+    public void setContext(String context) {
+        this.context = context;
+    }
+
+    public boolean isParked() {
+        return parked;
+    }
+
+    public void setParked(boolean parked) {
+        this.parked = parked;
+    }
+
+    public enum Type {
+        // The context contains the CoordinatorContext as it was written to the log
+        WRITE,
+        // The log of the transaction was deleted, the context is empty
+        DELETE,
+        // The transaction id is the id of an all-or-nothing group, the context contains its BookingGroupRecord
+        GROUP,
+        // The group was deleted from the log, the context is empty
+        GROUP_DELETE,
+        // Sent periodically to show that the primary is alive, the other fields are empty
+        HEARTBEAT
+    }
+}
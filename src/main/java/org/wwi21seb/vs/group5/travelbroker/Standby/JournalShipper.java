@@ -0,0 +1,184 @@
+package org.wwi21seb.vs.group5.travelbroker.Standby;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.wwi21seb.vs.group5.Logger.LoggerFactory;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.CoordinatorContext;
+import org.wwi21seb.vs.group5.travelbroker.Server.BookingGroupRecord;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The JournalShipper sends every change of the coordinator log of the primary
+ * broker to the {@link StandbyCoordinator}. A record is shipped right after it
+ * was written to the local log, and a heartbeat is sent in a fixed interval,
+ * so the standby notices within a few heartbeats that the primary is gone.
+ * <p>
+ * While the standby is not reachable, records are not shipped. The shipper
+ * keeps trying to connect and sends all open and parked transactions once it
+ * succeeds. A parked transaction is still undecided for its participants, so the
+ * standby has to resend its decision after a takeover like for any other.
+ */
+public class JournalShipper {
+    // The logger is used to log messages to the console.
+    private static final Logger LOGGER = LoggerFactory.setupLogger(JournalShipper.class.getName());
+
+    private final InetSocketAddress standby;
+    private final long heartbeatMillis;
+    private final Supplier<Collection<CoordinatorContext>> openContexts;
+    private final Supplier<Collection<CoordinatorContext>> parkedContexts;
+    private final Supplier<Collection<BookingGroupRecord>> openGroups;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ObjectWriter recordWriter = mapper.writerFor(JournalRecord.class);
+
+    // The connection to the standby, null while we are not connected
+    private Socket connection;
+    private Writer out;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "JournalShipper-Heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param standby         the address the standby accepts the journal on
+     * @param heartbeatMillis the interval of the heartbeats
+     * @param openContexts    supplies the open contexts that are sent when a connection is established
+     * @param parkedContexts  supplies the parked contexts that are sent when a connection is established
+     * @param openGroups      supplies the groups that are sent when a connection is established
+     */
+    public JournalShipper(InetSocketAddress standby, long heartbeatMillis, Supplier<Collection<CoordinatorContext>> openContexts,
+                          Supplier<Collection<CoordinatorContext>> parkedContexts, Supplier<Collection<BookingGroupRecord>> openGroups) {
+        this.standby = standby;
+        this.heartbeatMillis = heartbeatMillis;
+        this.openContexts = openContexts;
+        this.parkedContexts = parkedContexts;
+        this.openGroups = openGroups;
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::heartbeat, 0, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param transactionId the id of the transaction
+     * @param context       the serialized context, as it was written to the log
+     * @param parked        true if the transaction is parked
+     */
+    public synchronized void shipWrite(UUID transactionId, String context, boolean parked) {
+        if (out != null) {
+            ship(new JournalRecord(JournalRecord.Type.WRITE, transactionId, context, parked));
+        }
+    }
+
+    public synchronized void shipDelete(UUID transactionId) {
+        if (out != null) {
+            ship(new JournalRecord(JournalRecord.Type.DELETE, transactionId, null));
+        }
+    }
+
+    public synchronized void shipGroup(BookingGroupRecord group) {
+        if (out != null) {
+            ship(new JournalRecord(JournalRecord.Type.GROUP, group.getGroupId(), group.toJson(mapper).toString()));
+        }
+    }
+
+    public synchronized void shipGroupDelete(UUID groupId) {
+        if (out != null) {
+            ship(new JournalRecord(JournalRecord.Type.GROUP_DELETE, groupId, null));
+        }
+    }
+
+    private synchronized void heartbeat() {
+        if (out == null && !connect()) {
+            return;
+        }
+
+        ship(new JournalRecord(JournalRecord.Type.HEARTBEAT, null, null));
+    }
+
+    private boolean connect() {
+        try {
+            Socket socket = new Socket();
+            socket.connect(standby, (int) heartbeatMillis);
+            socket.setTcpNoDelay(true);
+
+            connection = socket;
+            out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // The standby is not running, we try again with the next heartbeat
+            return false;
+        }
+
+        LOGGER.log(Level.INFO, "Connected to standby at {0}, shipping open transactions", standby);
+
+        // The standby starts with an empty state on every connection. A transaction that is parked
+        // or resumed meanwhile is shipped again after this, since shipping waits for the connect.
+        for (CoordinatorContext context : openContexts.get()) {
+            if (out == null) {
+                return false;
+            }
+            ship(new JournalRecord(JournalRecord.Type.WRITE, context.getTransactionId(), serialize(context), false));
+        }
+        for (CoordinatorContext context : parkedContexts.get()) {
+            if (out == null) {
+                return false;
+            }
+            ship(new JournalRecord(JournalRecord.Type.WRITE, context.getTransactionId(), serialize(context), true));
+        }
+        for (BookingGroupRecord group : openGroups.get()) {
+            if (out == null) {
+                return false;
+            }
+            ship(new JournalRecord(JournalRecord.Type.GROUP, group.getGroupId(), group.toJson(mapper).toString()));
+        }
+
+        return out != null;
+    }
+
+    private void ship(JournalRecord record) {
+        try {
+            // Jackson escapes line breaks within strings, so every record is exactly one line
+            out.write(recordWriter.writeValueAsString(record));
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Lost connection to standby: {0}", e.getMessage());
+            disconnect();
+        }
+    }
+
+    private void disconnect() {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Error closing standby connection: {0}", e.getMessage());
+        }
+        connection = null;
+        out = null;
+    }
+
+    private String serialize(CoordinatorContext context) {
+        try {
+            return mapper.writeValueAsString(context);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error parsing JSON: {0}", e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+}
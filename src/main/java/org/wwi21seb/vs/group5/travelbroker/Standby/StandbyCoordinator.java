@@ -0,0 +1,171 @@
+package org.wwi21seb.vs.group5.travelbroker.Standby;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.wwi21seb.vs.group5.Logger.LoggerFactory;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.CoordinatorContext;
+import org.wwi21seb.vs.group5.travelbroker.Server.BookingGroupRecord;
+import org.wwi21seb.vs.group5.travelbroker.Server.TravelBrokerServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The StandbyCoordinator receives the journal of a primary broker and keeps
+ * a copy of its open transactions. When the connection breaks or no heartbeat
+ * arrives in time, the standby starts a {@link TravelBrokerServer} on the port
+ * of the primary with these transactions. The server recovers them like after
+ * a restart: it resends the decisions and answers the RESULT inquiries of the
+ * participants. The transactions the primary had parked are redriven as well:
+ * their decisions are sent again, since the participants are still waiting for
+ * them and would otherwise ask the new server about transactions it doesn't know.
+ * <p>
+ * The standby can only bind the port once the primary has released it, which
+ * keeps two coordinators from deciding the same transactions. If the port is
+ * still taken, the primary is only slow and the standby waits for it to
+ * reconnect.
+ * <p>
+ * Usage: {@code StandbyCoordinator <primary port>}, the journal is accepted on
+ * {@code -Dtravelbroker.standby.port}.
+ */
+public class StandbyCoordinator {
+    // The logger is used to log messages to the console.
+    private static final Logger LOGGER = LoggerFactory.setupLogger(StandbyCoordinator.class.getName());
+
+    // The number of attempts to bind the port of the primary, one every 10 milliseconds
+    private static final int TAKEOVER_ATTEMPTS = 50;
+
+    private final int primaryPort;
+    private final int journalPort;
+    private final int heartbeatTimeoutMillis;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ObjectReader recordReader = mapper.readerFor(JournalRecord.class);
+    private final ObjectReader contextReader = mapper.readerFor(CoordinatorContext.class);
+
+    // The open transactions of the primary, as they were last written to its log
+    private final Map<UUID, CoordinatorContext> contexts = new HashMap<>();
+    // The ids of the contexts the primary had parked
+    private final Set<UUID> parked = new HashSet<>();
+    // The all-or-nothing groups of the primary, so their transactions are decided together
+    private final Map<UUID, BookingGroupRecord> groups = new HashMap<>();
+
+    public StandbyCoordinator(int primaryPort, int journalPort, int heartbeatTimeoutMillis) {
+        this.primaryPort = primaryPort;
+        this.journalPort = journalPort;
+        this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int primaryPort = Integer.parseInt(args[0]);
+        int journalPort = Integer.getInteger("travelbroker.standby.port", 6000);
+        int heartbeatTimeoutMillis = Integer.getInteger("travelbroker.standby.timeoutMillis", 250);
+
+        new StandbyCoordinator(primaryPort, journalPort, heartbeatTimeoutMillis).run();
+    }
+
+    /**
+     * Follows the primary until it fails and then takes over its transactions.
+     *
+     * @return the server that has taken over
+     */
+    public TravelBrokerServer run() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(journalPort)) {
+            LOGGER.log(Level.INFO, "Standby for port {0} is waiting for the journal on port {1}", new Object[]{primaryPort, journalPort});
+
+            while (true) {
+                try (Socket connection = serverSocket.accept()) {
+                    follow(connection);
+                }
+
+                TravelBrokerServer server = takeOver();
+                if (server != null) {
+                    return server;
+                }
+            }
+        }
+    }
+
+    private void follow(Socket connection) {
+        LOGGER.log(Level.INFO, "Primary connected from {0}", connection.getRemoteSocketAddress());
+
+        // The primary sends all open transactions again on every connection
+        contexts.clear();
+        parked.clear();
+        groups.clear();
+
+        try {
+            connection.setSoTimeout(heartbeatTimeoutMillis);
+            BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                JournalRecord record = recordReader.readValue(line);
+
+                switch (record.getType()) {
+                    case WRITE -> {
+                        contexts.put(record.getTransactionId(), contextReader.readValue(record.getContext()));
+                        if (record.isParked()) {
+                            parked.add(record.getTransactionId());
+                        } else {
+                            parked.remove(record.getTransactionId());
+                        }
+                    }
+                    case DELETE -> {
+                        contexts.remove(record.getTransactionId());
+                        parked.remove(record.getTransactionId());
+                    }
+                    case GROUP -> groups.put(record.getTransactionId(), BookingGroupRecord.fromJson(mapper.readTree(record.getContext())));
+                    case GROUP_DELETE -> groups.remove(record.getTransactionId());
+                    case HEARTBEAT -> {
+                        // The read timeout is reset with every line
+                    }
+                }
+            }
+
+            LOGGER.log(Level.WARNING, "Primary closed the journal connection");
+        } catch (SocketTimeoutException e) {
+            LOGGER.log(Level.WARNING, "Missed the heartbeats of the primary for {0} ms", heartbeatTimeoutMillis);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Lost the journal connection: {0}", e.getMessage());
+        }
+    }
+
+    private TravelBrokerServer takeOver() {
+        for (int attempt = 0; attempt < TAKEOVER_ATTEMPTS; attempt++) {
+            try {
+                // The parked transactions are recovered like the open ones, so their decisions are sent again
+                TravelBrokerServer server = new TravelBrokerServer(primaryPort, new ArrayList<>(contexts.values()), new ArrayList<>(groups.values()));
+                server.startReceiving();
+
+                LOGGER.log(Level.INFO, "Took over port {0} with {1} open transactions, {2} of them parked",
+                        new Object[]{primaryPort, contexts.size(), parked.size()});
+                return server;
+            } catch (SocketException e) {
+                // The primary still holds its port
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+
+        LOGGER.log(Level.WARNING, "Port {0} is still in use, waiting for the primary to reconnect", primaryPort);
+        return null;
+    }
+}
@@ -0,0 +1,218 @@
+package org.wwi21seb.vs.group5.travelbroker.Subscription;
+
+import org.wwi21seb.vs.group5.Model.Car;
+import org.wwi21seb.vs.group5.Model.Room;
+
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * The AvailabilityReplica is the local copy of the inventory and bookings of
+ * all providers. It is filled by the snapshot of a subscription and kept up
+ * to date with the pushed deltas, so availability requests can be answered
+ * from memory.
+ * <p>
+ * A provider is only in sync after its snapshot was applied and as long as no
+ * delta was missed. The replica must only be used when all providers are in
+ * sync, otherwise the availability has to be requested from the providers.
+ * <p>
+ * A provider falls out of sync when its epoch changes, since it restarted and
+ * its sequence numbers started over, when a heartbeat reports a delta we don't
+ * have, or when we haven't heard from it for a while.
+ */
+public class AvailabilityReplica {
+
+    private final Map<String, ProviderState> providers = new HashMap<>();
+
+    public AvailabilityReplica(Collection<String> providerNames) {
+        providerNames.forEach(name -> providers.put(name, new ProviderState()));
+    }
+
+    public synchronized boolean isSynced() {
+        return providers.values().stream().allMatch(state -> state.synced);
+    }
+
+    public synchronized boolean isSynced(String provider) {
+        ProviderState state = providers.get(provider);
+        return state != null && state.synced;
+    }
+
+    /**
+     * Replaces the state of a provider with its snapshot.
+     *
+     * @param provider  the name of the provider
+     * @param epoch     the epoch of the provider
+     * @param sequence  the sequence number of the snapshot
+     * @param resources the rooms or cars of the provider
+     * @param ranges    the booked ranges of the provider
+     */
+    public synchronized void applySnapshot(String provider, long epoch, long sequence, List<?> resources, List<ResourceRange> ranges) {
+        ProviderState state = providers.get(provider);
+        if (state == null) {
+            return;
+        }
+        state.lastHeard = System.nanoTime();
+
+        state.resources.clear();
+        state.bookings.clear();
+        resources.forEach(resource -> state.resources.put(idOf(resource), resource));
+        ranges.forEach(range -> state.book(range));
+
+        state.epoch = epoch;
+        state.sequence = sequence;
+        state.synced = true;
+    }
+
+    /**
+     * Applies a BOOKED or RELEASED delta of a provider.
+     *
+     * @param provider the name of the provider
+     * @param epoch    the epoch of the provider
+     * @param sequence the sequence number of the delta
+     * @param range    the range that was booked or released
+     * @param booked   true if the range was booked, false if it was released
+     * @return false if a previous delta is missing and the provider has to be synced again
+     */
+    public synchronized boolean applyDelta(String provider, long epoch, long sequence, ResourceRange range, boolean booked) {
+        ProviderState state = providers.get(provider);
+        if (state == null || !state.synced) {
+            // We are already waiting for a new snapshot of this provider
+            return true;
+        }
+        state.lastHeard = System.nanoTime();
+
+        if (epoch != state.epoch) {
+            // The provider restarted, so its sequence numbers can't be compared to ours
+            state.synced = false;
+            return false;
+        }
+        if (sequence <= state.sequence) {
+            // This is a duplicate of a delta we already applied
+            return true;
+        }
+        if (sequence != state.sequence + 1) {
+            state.synced = false;
+            return false;
+        }
+
+        if (booked) {
+            state.book(range);
+        } else {
+            state.release(range);
+        }
+        state.sequence = sequence;
+        return true;
+    }
+
+    /**
+     * Checks the heartbeat of a provider against our state.
+     *
+     * @param provider the name of the provider
+     * @param epoch    the epoch of the provider
+     * @param sequence the last sequence number the provider sent
+     * @return false if the provider restarted or we missed its last delta and it has to be synced again
+     */
+    public synchronized boolean applyHeartbeat(String provider, long epoch, long sequence) {
+        ProviderState state = providers.get(provider);
+        if (state == null || !state.synced) {
+            return true;
+        }
+        state.lastHeard = System.nanoTime();
+
+        if (epoch != state.epoch || sequence > state.sequence) {
+            state.synced = false;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Marks the providers we haven't heard from within the timeout as out of sync.
+     *
+     * @param timeoutNanos the time after the last message of a provider it is considered quiet
+     * @return the names of the providers that went out of sync
+     */
+    public synchronized List<String> expireQuiet(long timeoutNanos) {
+        long now = System.nanoTime();
+        List<String> expired = new ArrayList<>();
+        providers.forEach((name, state) -> {
+            if (state.synced && now - state.lastHeard > timeoutNanos) {
+                state.synced = false;
+                expired.add(name);
+            }
+        });
+        return expired;
+    }
+
+    /**
+     * Returns the available resources per provider in the same form as the
+     * GET_AVAILABILITY responses.
+     *
+     * @param startDate the first night
+     * @param endDate   the day of departure
+     * @param capacity  the number of persons
+     * @return the available rooms and cars, mapped by the provider name
+     */
+    public synchronized Map<String, List<Object>> getAvailability(LocalDate startDate, LocalDate endDate, int capacity) {
+        Map<String, List<Object>> result = new HashMap<>();
+
+        providers.forEach((name, state) -> {
+            List<Object> available = new ArrayList<>();
+
+            state.resources.forEach((id, resource) -> {
+                if (capacityOf(resource) >= capacity && !state.isBooked(id, startDate, endDate)) {
+                    available.add(resource);
+                }
+            });
+
+            result.put(name, available);
+        });
+
+        return result;
+    }
+
+    private static UUID idOf(Object resource) {
+        return resource instanceof Room room ? room.getId() : ((Car) resource).getId();
+    }
+
+    private static int capacityOf(Object resource) {
+        return resource instanceof Room room ? room.getCapacity() : ((Car) resource).getCapacity();
+    }
+
+    /**
+     * The ProviderState contains the replicated state of a single provider.
+     */
+    private static class ProviderState {
+        private final Map<UUID, Object> resources = new LinkedHashMap<>();
+        // The bookings of a resource don't overlap, so they are mapped from start to end date
+        private final Map<UUID, TreeMap<LocalDate, LocalDate>> bookings = new HashMap<>();
+        private long epoch = 0;
+        private long sequence = -1;
+        private boolean synced = false;
+        // The System.nanoTime() of the last message of the provider
+        private long lastHeard = 0;
+
+        private void book(ResourceRange range) {
+            bookings.computeIfAbsent(range.getResourceId(), id -> new TreeMap<>())
+                    .put(LocalDate.parse(range.getStartDate()), LocalDate.parse(range.getEndDate()));
+        }
+
+        private void release(ResourceRange range) {
+            TreeMap<LocalDate, LocalDate> ranges = bookings.get(range.getResourceId());
+            if (ranges != null) {
+                ranges.remove(LocalDate.parse(range.getStartDate()), LocalDate.parse(range.getEndDate()));
+            }
+        }
+
+        private boolean isBooked(UUID resourceId, LocalDate startDate, LocalDate endDate) {
+            TreeMap<LocalDate, LocalDate> ranges = bookings.get(resourceId);
+            if (ranges == null) {
+                return false;
+            }
+
+            // Only the last booking that starts before our end can overlap
+            Map.Entry<LocalDate, LocalDate> candidate = ranges.lowerEntry(endDate);
+            return candidate != null && candidate.getValue().isAfter(startDate);
+        }
+    }
+}
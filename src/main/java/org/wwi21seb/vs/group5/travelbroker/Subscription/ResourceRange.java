@@ -0,0 +1,47 @@
+package org.wwi21seb.vs.group5.travelbroker.Subscription;
+
+import java.util.UUID;
+
+/**
+ * A ResourceRange is the date range for which a room or car is booked. The
+ * end date is the day the booking ends, the night before it is the last one.
+ */
+public class ResourceRange {
+
+    private UUID resourceId;
+    private String startDate;
+    private String endDate;
+
+    public ResourceRange() {
+    }
+
+    public ResourceRange(UUID resourceId, String startDate, String endDate) {
+        this.resourceId = resourceId;
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+
+    public UUID getResourceId() {
+        return resourceId;
+    }
+
+    public void setResourceId(UUID resourceId) {
+        this.resourceId = resourceId;
+    }
+
+    public String getStartDate() {
+        return startDate;
+    }
+
+    public void setStartDate(String startDate) {
+        this.startDate = startDate;
+    }
+
+    public String getEndDate() {
+        return endDate;
+    }
+
+    public void setEndDate(String endDate) {
+        this.endDate = endDate;
+    }
+}
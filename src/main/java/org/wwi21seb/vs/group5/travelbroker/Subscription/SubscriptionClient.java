@@ -0,0 +1,159 @@
+package org.wwi21seb.vs.group5.travelbroker.Subscription;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.wwi21seb.vs.group5.Logger.LoggerFactory;
+import org.wwi21seb.vs.group5.Model.Car;
+import org.wwi21seb.vs.group5.Model.Room;
+import org.wwi21seb.vs.group5.TwoPhaseCommit.Participant;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The SubscriptionClient subscribes the broker to the availability of every
+ * provider and feeds the pushed snapshots and deltas into the replica.
+ * <p>
+ * The subscriptions use their own socket, the providers listen for them on
+ * their UDP port plus {@link #SUBSCRIPTION_PORT_OFFSET}. Whenever a provider is
+ * out of sync, because its snapshot is missing or a delta was lost, it is
+ * subscribed again and sends a new snapshot. The providers that are in sync
+ * are probed in the same interval, and the ones that don't answer within
+ * {@code -Dtravelbroker.subscriptions.timeoutSeconds} (default 15) are
+ * considered out of sync as well.
+ */
+public class SubscriptionClient {
+    // The logger is used to log messages to the console.
+    private static final Logger LOGGER = LoggerFactory.setupLogger(SubscriptionClient.class.getName());
+
+    // The providers accept subscriptions on this offset to their UDP port
+    private static final int SUBSCRIPTION_PORT_OFFSET = 1000;
+
+    // The interval in which providers that are out of sync are subscribed again
+    private static final long RESUBSCRIBE_INTERVAL_SECONDS = 5;
+
+    private final long timeoutNanos = TimeUnit.SECONDS.toNanos(Long.getLong("travelbroker.subscriptions.timeoutSeconds", 15));
+
+    private final AvailabilityReplica replica;
+    private final List<Participant> participants;
+    private final DatagramSocket socket;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // Snapshots can be much larger than our other messages, so we accept the maximum UDP payload
+    private final byte[] receiveBuffer = new byte[65507];
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SubscriptionClient-Resubscribe");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SubscriptionClient(AvailabilityReplica replica, List<Participant> participants) throws SocketException {
+        this.replica = replica;
+        this.participants = participants;
+        this.socket = new DatagramSocket();
+    }
+
+    public void start() {
+        Thread thread = new Thread(() -> {
+            while (true) {
+                DatagramPacket packet = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+                try {
+                    socket.receive(packet);
+                    receive(mapper.readValue(packet.getData(), 0, packet.getLength(), SubscriptionMessage.class));
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Error receiving subscription message: {0}", e.getMessage());
+                } catch (RuntimeException e) {
+                    // A datagram of an unknown sender or with an unreadable payload must not end the subscription
+                    LOGGER.log(Level.WARNING, "Dropping invalid subscription message: {0}", e.getMessage());
+                }
+            }
+        }, "SubscriptionClient");
+        thread.setDaemon(true);
+        thread.start();
+
+        // Subscribe to all providers now and to the ones that are out of sync periodically,
+        // the others are probed, so a quiet provider or a lost last delta is noticed
+        scheduler.scheduleWithFixedDelay(() -> {
+            replica.expireQuiet(timeoutNanos).forEach(provider ->
+                    LOGGER.log(Level.WARNING, "No message from {0} within the timeout, resyncing", provider));
+
+            participants.forEach(participant -> {
+                if (!replica.isSynced(participant.getName())) {
+                    subscribe(participant);
+                } else {
+                    send(participant, SubscriptionMessage.Type.PROBE);
+                }
+            });
+        }, 0, RESUBSCRIBE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void subscribe(Participant participant) {
+        LOGGER.log(Level.INFO, "Subscribing to the availability of {0}", participant.getName());
+        send(participant, SubscriptionMessage.Type.SUBSCRIBE);
+    }
+
+    private void send(Participant participant, SubscriptionMessage.Type type) {
+        try {
+            SubscriptionMessage message = new SubscriptionMessage(type, "TravelBroker", 0, null);
+            byte[] sendBuffer = mapper.writeValueAsBytes(message);
+            DatagramPacket packet = new DatagramPacket(sendBuffer, sendBuffer.length, participant.getUrl(), participant.getPort() + SUBSCRIPTION_PORT_OFFSET);
+            socket.send(packet);
+        } catch (IOException | RuntimeException e) {
+            // This runs on the resubscribe schedule, which would stop for good on an exception
+            LOGGER.log(Level.WARNING, "Error sending subscription message: {0}", e.getMessage());
+        }
+    }
+
+    private void resync(String provider) {
+        participants.stream().filter(p -> p.getName().equals(provider)).findFirst().ifPresent(this::subscribe);
+    }
+
+    private void receive(SubscriptionMessage message) throws IOException {
+        String provider = message.getSender();
+
+        switch (message.getType()) {
+            case SNAPSHOT -> {
+                JsonNode snapshot = mapper.readTree(message.getData());
+                List<?> resources = switch (provider) {
+                    case "HotelProvider" -> mapper.convertValue(snapshot.get("resources"), new TypeReference<List<Room>>() {
+                    });
+                    case "CarProvider" -> mapper.convertValue(snapshot.get("resources"), new TypeReference<List<Car>>() {
+                    });
+                    default -> throw new IllegalStateException("Unexpected sender: " + provider);
+                };
+                List<ResourceRange> ranges = mapper.convertValue(snapshot.get("ranges"), new TypeReference<>() {
+                });
+
+                replica.applySnapshot(provider, message.getEpoch(), message.getSequence(), resources, ranges);
+                LOGGER.log(Level.INFO, "Applied snapshot {0} of {1}", new Object[]{message.getSequence(), provider});
+            }
+            case BOOKED, RELEASED -> {
+                ResourceRange range = mapper.readValue(message.getData(), ResourceRange.class);
+                boolean booked = message.getType() == SubscriptionMessage.Type.BOOKED;
+
+                if (!replica.applyDelta(provider, message.getEpoch(), message.getSequence(), range, booked)) {
+                    // We missed a delta or the provider restarted, so our copy can't be trusted until we have a new snapshot
+                    LOGGER.log(Level.WARNING, "Missed a delta of {0} before {1}, resyncing", new Object[]{provider, message.getSequence()});
+                    resync(provider);
+                }
+            }
+            case HEARTBEAT -> {
+                if (!replica.applyHeartbeat(provider, message.getEpoch(), message.getSequence())) {
+                    LOGGER.log(Level.WARNING, "Heartbeat of {0} at {1} doesn't match our copy, resyncing", new Object[]{provider, message.getSequence()});
+                    resync(provider);
+                }
+            }
+            default -> LOGGER.log(Level.WARNING, "Received unexpected subscription message {0}", message.getType());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.wwi21seb.vs.group5.travelbroker.Subscription;
+
+/**
+ * A SubscriptionMessage is exchanged between the broker and a provider on the
+ * subscription port of the provider. The broker sends a SUBSCRIBE, the provider
+ * answers with a SNAPSHOT of its inventory and bookings and afterward pushes a
+ * BOOKED or RELEASED delta for every change. Every message of a provider carries
+ * the next sequence number, so the broker can detect lost deltas.
+ * <p>
+ * The sequence numbers of a provider start over when it restarts, so every message
+ * also carries the epoch of the provider, which changes with every start. The broker
+ * sends a PROBE now and then, which the provider answers with a HEARTBEAT carrying
+ * the last sequence number it sent, so a lost last delta is detected as well.
+ */
+public class SubscriptionMessage {
+
+    private Type type;
+    private String sender;
+    private long sequence;
+    private long epoch;
+    private String data;
+
+    public SubscriptionMessage() {
+    }
+
+    public SubscriptionMessage(Type type, String sender, long sequence, String data) {
+        this.type = type;
+        this.sender = sender;
+        this.sequence = sequence;
+        this.data = data;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public void setSender(String sender) {
+        this.sender = sender;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public void setEpoch(long epoch) {
+        this.epoch = epoch;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    public void setData(String data) {
+        this.data = data;
+    }
+
+    public enum Type {
+        // Sent by the broker to (re)start a subscription, the data is empty
+        SUBSCRIBE,
+        // The data contains the "resources" (rooms or cars) and the booked "ranges" of the provider
+        SNAPSHOT,
+        // The data contains the ResourceRange that was booked
+        BOOKED,
+        // The data contains the ResourceRange that was released
+        RELEASED,
+        // Sent by the broker to check whether it missed a delta, the data is empty
+        PROBE,
+        // The answer to a PROBE, the sequence is the last one the provider sent, the data is empty
+        HEARTBEAT
+    }
+}
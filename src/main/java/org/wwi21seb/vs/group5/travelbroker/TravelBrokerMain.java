@@ -2,6 +2,8 @@ package org.wwi21seb.vs.group5.travelbroker;
 
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringWrapper;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.scene.Scene;
@@ -9,6 +11,7 @@ import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
@@ -18,14 +21,24 @@ import org.wwi21seb.vs.group5.Model.Rental;
 import org.wwi21seb.vs.group5.Model.Room;
 import org.wwi21seb.vs.group5.Request.AvailabilityRequest;
 import org.wwi21seb.vs.group5.Request.ReservationRequest;
+import org.wwi21seb.vs.group5.travelbroker.Client.ObservableListUpdater;
+import org.wwi21seb.vs.group5.travelbroker.Server.BookingQuery;
+import org.wwi21seb.vs.group5.travelbroker.Server.BookingRecord;
+import org.wwi21seb.vs.group5.travelbroker.Server.DatedTravelPackage;
 import org.wwi21seb.vs.group5.travelbroker.Server.TravelBrokerServer;
+import org.wwi21seb.vs.group5.travelbroker.Server.TravelPackage;
 
+import java.io.IOException;
 import java.net.SocketException;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletionException;
 
 /**
  * The TravelBrokerMain class contains our UI and is the entry point of the
@@ -47,6 +60,8 @@ public class TravelBrokerMain extends Application {
     private ObservableList<Room> rooms = FXCollections.observableArrayList();
     private ObservableList<Booking> bookings = FXCollections.observableArrayList();
     private ObservableList<Rental> rentals = FXCollections.observableArrayList();
+    private ObservableList<TravelPackage> packages = FXCollections.observableArrayList();
+    private final int packageLimit = 10;
 
     public static void main(String[] args) {
         launch();
@@ -195,9 +210,33 @@ public class TravelBrokerMain extends Application {
         BorderPane travelBrokerPane = new BorderPane();
         travelBrokerPane.setTop(createMenuBar(primaryStage));
 
-        VBox travelBrokerBox = new VBox();
+        VBox travelBrokerBox = new VBox(15);
         travelBrokerBox.getChildren().add(new Label("Travel Broker Scene"));
 
+        // Show the current metrics of the server, they are refreshed on demand
+        Label compressionLabel = new Label(server.getCompressionMetrics());
+        Label durabilityLabel = new Label(server.getDurabilityMetrics());
+        Button refreshMetricsButton = new Button("Refresh Metrics");
+        refreshMetricsButton.setOnMouseClicked((e -> {
+            compressionLabel.setText(server.getCompressionMetrics());
+            durabilityLabel.setText(server.getDurabilityMetrics());
+        }));
+
+        // Export the timeline of the traced transactions, it can be opened with chrome://tracing or Perfetto
+        Label traceLabel = new Label();
+        Button exportTraceButton = new Button("Export Trace");
+        exportTraceButton.setOnMouseClicked((e -> {
+            Path file = Path.of(String.format("travelbroker-trace-%d.json", System.currentTimeMillis()));
+            try {
+                int events = server.exportTrace(file);
+                traceLabel.setText(String.format("Exported %d events to %s", events, file.toAbsolutePath()));
+            } catch (IOException ex) {
+                traceLabel.setText(String.format("Could not export trace: %s", ex.getMessage()));
+            }
+        }));
+
+        travelBrokerBox.getChildren().addAll(compressionLabel, durabilityLabel, refreshMetricsButton, exportTraceButton, traceLabel);
+
         travelBrokerPane.setCenter(travelBrokerBox);
 
         int width = (int) Screen.getPrimary().getBounds().getWidth();
@@ -262,7 +301,79 @@ public class TravelBrokerMain extends Application {
         carTableView.setItems(rentals);
 
         bookingBox.getChildren().addAll(bookingTableView, carTableView);
-        getBookingsPane.setCenter(bookingBox);
+
+        // The search runs on the booking history of the server, without contacting the providers
+        HBox searchBox = new HBox(15);
+        TextField searchField = new TextField();
+        searchField.setPromptText("room:<id> car:<id> rooms cars date:2024-01-01..2024-01-07 minPrice:100 maxPrice:500 revenue");
+        searchField.setPrefColumnCount(50);
+        Button historySearchButton = new Button("Search History");
+        Label searchResultLabel = new Label();
+        searchBox.getChildren().addAll(searchField, historySearchButton, searchResultLabel);
+
+        HBox historyBox = new HBox(15);
+        TableView<BookingRecord> historyTableView = new TableView<>();
+
+        TableColumn<BookingRecord, String> historyTypeColumn = new TableColumn<>("Type");
+        historyTypeColumn.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue().getType().toString()));
+
+        TableColumn<BookingRecord, String> historyIdColumn = new TableColumn<>("Booking ID");
+        historyIdColumn.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue().getId().toString()));
+
+        TableColumn<BookingRecord, String> historyResourceColumn = new TableColumn<>("Room / Car ID");
+        historyResourceColumn.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue().getResourceId().toString()));
+
+        TableColumn<BookingRecord, LocalDate> historyStartDateColumn = new TableColumn<>("Start date");
+        historyStartDateColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getStartDate()));
+
+        TableColumn<BookingRecord, LocalDate> historyEndDateColumn = new TableColumn<>("End date");
+        historyEndDateColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getEndDate()));
+
+        TableColumn<BookingRecord, String> historyPriceColumn = new TableColumn<>("Total price");
+        historyPriceColumn.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue().hasPrice()
+                ? String.format("%.2f", cell.getValue().getTotalPrice()) : "pending"));
+
+        historyTableView.getColumns().add(historyTypeColumn);
+        historyTableView.getColumns().add(historyIdColumn);
+        historyTableView.getColumns().add(historyResourceColumn);
+        historyTableView.getColumns().add(historyStartDateColumn);
+        historyTableView.getColumns().add(historyEndDateColumn);
+        historyTableView.getColumns().add(historyPriceColumn);
+        historyTableView.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_ALL_COLUMNS);
+        HBox.setHgrow(historyTableView, Priority.ALWAYS);
+
+        ListView<String> revenueListView = new ListView<>();
+        revenueListView.setVisible(false);
+        revenueListView.setManaged(false);
+        historyBox.getChildren().addAll(historyTableView, revenueListView);
+
+        historySearchButton.setOnAction(e -> {
+            long start = System.nanoTime();
+            try {
+                BookingQuery query = BookingQuery.parse(searchField.getText());
+                List<BookingRecord> records = server.findBookings(query);
+                historyTableView.setItems(FXCollections.observableArrayList(records));
+
+                double revenue = records.stream().filter(BookingRecord::hasPrice).mapToDouble(BookingRecord::getTotalPrice).sum();
+                revenueListView.getItems().clear();
+                if (query.isRevenue()) {
+                    server.getRevenuePerDay(query).forEach((day, dayRevenue) ->
+                            revenueListView.getItems().add(String.format("%s: %.2f", day, dayRevenue)));
+                }
+                revenueListView.setVisible(query.isRevenue());
+                revenueListView.setManaged(query.isRevenue());
+
+                searchResultLabel.setText(String.format("%d bookings, revenue %.2f, in %.2f ms",
+                        records.size(), revenue, (System.nanoTime() - start) / 1e6));
+            } catch (IllegalArgumentException ex) {
+                searchResultLabel.setText(String.format("Invalid search: %s", ex.getMessage()));
+            }
+        });
+        searchField.setOnAction(historySearchButton.getOnAction());
+
+        VBox centerBox = new VBox(15);
+        centerBox.getChildren().addAll(bookingBox, searchBox, historyBox);
+        getBookingsPane.setCenter(centerBox);
 
         int width = (int) Screen.getPrimary().getBounds().getWidth();
         int height = (int) Screen.getPrimary().getBounds().getHeight();
@@ -309,6 +420,10 @@ public class TravelBrokerMain extends Application {
         Label capacityLabel = new Label("Capacity:");
         Spinner<Integer> capacitySpinner = new Spinner<>(1, 10, 1);
         Button searchButton = new Button("Search Availability");
+        Button recommendButton = new Button("Recommend Packages");
+        Label nightsLabel = new Label("Nights:");
+        Spinner<Integer> nightsSpinner = new Spinner<>(1, 14, 3);
+        Button flexibleButton = new Button("Find Cheapest Dates");
 
         HBox bookingBox = new HBox(15);
         TableView<Room> hotelTableView = new TableView<>();
@@ -331,6 +446,15 @@ public class TravelBrokerMain extends Application {
         hotelTableView.getColumns().add(roomPriceColumn);
         hotelTableView.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_ALL_COLUMNS);
         hotelTableView.setItems(rooms);
+
+        // The room list is only modified through the updater, which also indexes
+        // the price and capacity columns for sorting
+        ObservableListUpdater<Room> roomUpdater = new ObservableListUpdater<>(rooms, Room::getId,
+                (oldRoom, newRoom) -> oldRoom.getCapacity() == newRoom.getCapacity()
+                        && oldRoom.getPricePerNight() == newRoom.getPricePerNight()
+                        && Objects.equals(oldRoom.getType(), newRoom.getType()),
+                Map.of(roomCapacityColumn, Room::getCapacity, roomPriceColumn, Room::getPricePerNight));
+        hotelTableView.setSortPolicy(roomUpdater.sortPolicy());
         hotelTableView.getSelectionModel().selectedItemProperty().addListener((obs, oldSelection, newSelection) -> {
             if (newSelection != null) {
                 selectedRoomLabel.setText(newSelection.getId().toString());
@@ -361,12 +485,64 @@ public class TravelBrokerMain extends Application {
         carTableView.getColumns().add(carPriceColumn);
         carTableView.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_ALL_COLUMNS);
         carTableView.setItems(cars);
+
+        ObservableListUpdater<Car> carUpdater = new ObservableListUpdater<>(cars, Car::getId,
+                (oldCar, newCar) -> oldCar.getCapacity() == newCar.getCapacity()
+                        && oldCar.getPricePerDay() == newCar.getPricePerDay()
+                        && Objects.equals(oldCar.getModel(), newCar.getModel())
+                        && Objects.equals(oldCar.getManufacturer(), newCar.getManufacturer()),
+                Map.of(carCapacityColumn, Car::getCapacity, carPriceColumn, Car::getPricePerDay));
+        carTableView.setSortPolicy(carUpdater.sortPolicy());
         carTableView.getSelectionModel().selectedItemProperty().addListener((obs, oldSelection, newSelection) -> {
             if (newSelection != null) {
                 selectedCarLabel.setText(newSelection.getId().toString());
             }
         });
 
+        TableView<TravelPackage> packageTableView = new TableView<>();
+
+        TableColumn<TravelPackage, String> packageRoomColumn = new TableColumn<>("Room ID");
+        packageRoomColumn.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue().getRoomId().toString()));
+
+        TableColumn<TravelPackage, String> packageRoomTypeColumn = new TableColumn<>("Room Type");
+        packageRoomTypeColumn.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue().getRoom().getType()));
+
+        TableColumn<TravelPackage, String> packageCarColumn = new TableColumn<>("Car ID");
+        packageCarColumn.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue().getCarId().toString()));
+
+        TableColumn<TravelPackage, String> packageCarModelColumn = new TableColumn<>("Model");
+        packageCarModelColumn.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue().getCar().getModel()));
+
+        // Only the packages of a flexible search have their own dates
+        TableColumn<TravelPackage, String> packageDatesColumn = new TableColumn<>("Dates");
+        packageDatesColumn.setCellValueFactory(cell -> new ReadOnlyStringWrapper(cell.getValue() instanceof DatedTravelPackage dated
+                ? String.format("%s - %s", dated.getStartDate(), dated.getEndDate()) : ""));
+
+        TableColumn<TravelPackage, Double> packagePriceColumn = new TableColumn<>("Total price");
+        packagePriceColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(cell.getValue().getTotalPrice()));
+
+        packageTableView.getColumns().add(packageRoomColumn);
+        packageTableView.getColumns().add(packageRoomTypeColumn);
+        packageTableView.getColumns().add(packageCarColumn);
+        packageTableView.getColumns().add(packageCarModelColumn);
+        packageTableView.getColumns().add(packageDatesColumn);
+        packageTableView.getColumns().add(packagePriceColumn);
+        packageTableView.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_ALL_COLUMNS);
+        packageTableView.setItems(packages);
+        packageTableView.getSelectionModel().selectedItemProperty().addListener((obs, oldSelection, newSelection) -> {
+            if (newSelection != null) {
+                // Selecting a package selects both its room and its car for the booking
+                selectedRoomLabel.setText(newSelection.getRoomId().toString());
+                selectedCarLabel.setText(newSelection.getCarId().toString());
+
+                if (newSelection instanceof DatedTravelPackage dated) {
+                    // The package is booked for the dates it was found for
+                    startDatePicker.setValue(dated.getStartDate());
+                    endDatePicker.setValue(dated.getEndDate());
+                }
+            }
+        });
+
         Button bookButton = new Button("Book");
         bookButton.disableProperty().bind(selectedRoomLabel.textProperty().isEqualTo("None")
                 .or(selectedCarLabel.textProperty().isEqualTo("None")));
@@ -377,24 +553,51 @@ public class TravelBrokerMain extends Application {
             int capacity = capacitySpinner.getValue();
 
             AvailabilityRequest availabilityRequest = new AvailabilityRequest(startDate, endDate, capacity);
-            server.getAvailability(availabilityRequest).thenAccept(resultMap -> {
-                Platform.runLater(() -> {
-                    // This runs when the room list is available
-                    // First clear the existing values of the lists
-                    rooms.clear();
-                    cars.clear();
+            server.getAvailability(availabilityRequest).thenAcceptAsync(resultMap -> {
+                // This runs off the FX thread when the room list is available
+                // Get the result lists
+                List<Room> roomList = resultMap.get(hotelProviderName).stream().map(room -> (Room) room).toList();
+                List<Car> carList = resultMap.get(carProviderName).stream().map(car -> (Car) car).toList();
+
+                // Only the differences to the displayed lists are applied on the FX thread,
+                // afterward the tables are sorted again by their current sort order
+                roomUpdater.update(roomList).thenRun(hotelTableView::sort);
+                carUpdater.update(carList).thenRun(carTableView::sort);
+            });
+        }));
 
-                    // Get the result lists
-                    List<Room> roomList = resultMap.get(hotelProviderName).stream().map(room -> (Room) room).toList();
-                    List<Car> carList = resultMap.get(carProviderName).stream().map(car -> (Car) car).toList();
+        recommendButton.setOnMouseClicked((e -> {
+            String startDate = startDatePicker.getValue().toString();
+            String endDate = endDatePicker.getValue().toString();
+            int capacity = capacitySpinner.getValue();
 
-                    System.out.println(roomList);
-                    System.out.println(carList);
+            server.getPackages(startDate, endDate, capacity, packageLimit).thenAccept(packageList -> {
+                Platform.runLater(() -> {
+                    // This runs when the packages are available
+                    packages.setAll(packageList);
+                });
+            }).exceptionally(throwable -> {
+                showFailure("Recommendation failed", throwable);
+                return null;
+            });
+        }));
+
+        flexibleButton.setOnMouseClicked((e -> {
+            // The selected dates are the range in which the stay may lie
+            String earliestStart = startDatePicker.getValue().toString();
+            String latestEnd = endDatePicker.getValue().toString();
+            int nights = nightsSpinner.getValue();
+            int capacity = capacitySpinner.getValue();
 
-                    // Add the new result lists
-                    rooms.addAll(roomList);
-                    cars.addAll(carList);
+            server.getFlexiblePackages(earliestStart, latestEnd, nights, capacity, packageLimit).thenAccept(packageList -> {
+                Platform.runLater(() -> {
+                    // This runs when the packages of all date windows are ranked
+                    packages.setAll(packageList);
                 });
+            }).exceptionally(throwable -> {
+                // The search fails for too many date windows or a window without a reply
+                showFailure("Flexible search failed", throwable);
+                return null;
             });
         }));
 
@@ -436,7 +639,8 @@ public class TravelBrokerMain extends Application {
             }
         }));
 
-        formBox.getChildren().addAll(bookingLabel, startDatePicker, endDatePicker, capacityLabel, capacitySpinner, searchButton);
+        formBox.getChildren().addAll(bookingLabel, startDatePicker, endDatePicker, capacityLabel, capacitySpinner, searchButton, recommendButton,
+                nightsLabel, nightsSpinner, flexibleButton);
         bookingBox.getChildren().addAll(
                 hotelTableView, carTableView
         );
@@ -446,7 +650,7 @@ public class TravelBrokerMain extends Application {
                 new Label("Selected Car: "), selectedCarLabel,
                 bookButton
         );
-        wrapperBox.getChildren().addAll(formBox, bookingBox, footerBox);
+        wrapperBox.getChildren().addAll(formBox, bookingBox, new Label("Recommended Packages:"), packageTableView, footerBox);
 
         bookingPane.setCenter(wrapperBox);
 
@@ -454,4 +658,21 @@ public class TravelBrokerMain extends Application {
         int height = (int) Screen.getPrimary().getBounds().getHeight();
         bookingScene = new Scene(bookingPane, width, height);
     }
+
+    /**
+     * Shows the failure of a request to the server in an error alert.
+     *
+     * @param header    what has failed
+     * @param throwable the failure, as passed to an exceptionally handler of the request
+     */
+    private void showFailure(String header, Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+        Platform.runLater(() -> {
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Error");
+            alert.setHeaderText(header);
+            alert.setContentText(cause.getMessage());
+            alert.showAndWait();
+        });
+    }
 }
\ No newline at end of file